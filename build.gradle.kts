@@ -2,6 +2,7 @@ plugins {
     java
     distribution
     id("org.omegat.gradle") version "1.5.7"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 version = "2.0"
@@ -14,6 +15,20 @@ omegat {
 dependencies {
     implementation("org.omegat:omegat:5.7.0")
     implementation("org.omegat:lib-mnemonics:1.0")
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    findProperty("jmh.includes")?.let { includes.set(listOf(it.toString())) }
 }
 
 distributions {
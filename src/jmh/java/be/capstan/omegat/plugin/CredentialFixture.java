@@ -0,0 +1,112 @@
+package be.capstan.omegat.plugin;
+
+import org.omegat.util.RuntimePreferences;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic credentials for the benchmarks, kept in a temporary OmegaT
+ * configuration folder so that runs never touch the real store.
+ */
+final class CredentialFixture {
+    private static final String[] SCHEMES = { "https", "http", "ssh" };
+
+    private CredentialFixture() {
+    }
+
+    /**
+     * Point OmegaT at a fresh, empty configuration folder.
+     */
+    static Path createConfigDir() throws IOException {
+        Path dir = Files.createTempDirectory("omegat-credentials-bench");
+        RuntimePreferences.setConfigDir(dir.toString());
+        return dir;
+    }
+
+    static void deleteConfigDir(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * {@code count} distinct repository URLs spread over a few dozen hosts.
+     */
+    static List<String> urls(int count) {
+        Random random = new Random(42);
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add(SCHEMES[random.nextInt(SCHEMES.length)] + "://git" + random.nextInt(40)
+                    + ".example.com/team" + random.nextInt(500) + "/repo-" + i + ".git");
+        }
+        return urls;
+    }
+
+    /**
+     * Write the URLs as a credentials file, the way an export would.
+     */
+    static void writeCredentialFile(File file, List<String> urls) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (String url : urls) {
+                CredentialExporter.writeEntry(writer, url + CredentialStore.USERNAME_SUFFIX, "user");
+                CredentialExporter.writeEntry(writer, url + CredentialStore.PASSWORD_SUFFIX, "cGFzc3dvcmQ=");
+            }
+        }
+    }
+
+    /**
+     * Write a credentials file of about {@code bytes} bytes, generating the
+     * URLs as it goes so that the file may be larger than the heap.
+     */
+    static void writeLargeCredentialFile(File file, long bytes) throws IOException {
+        Random random = new Random(42);
+        try (CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(file));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8))) {
+            for (int i = 0; counter.count < bytes; i++) {
+                String url = SCHEMES[random.nextInt(SCHEMES.length)] + "://git" + random.nextInt(40)
+                        + ".example.com/team" + random.nextInt(500) + "/repo-" + i + ".git";
+                CredentialExporter.writeEntry(writer, url + CredentialStore.USERNAME_SUFFIX, "user");
+                CredentialExporter.writeEntry(writer, url + CredentialStore.PASSWORD_SUFFIX, "cGFzc3dvcmQ=");
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(new BufferedOutputStream(out));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Fill the store of the current configuration folder.
+     */
+    static void populateStore(List<String> urls) {
+        CredentialStore.Batch batch = CredentialStore.newBatch();
+        for (String url : urls) {
+            batch.setCredentials(url, "user", "cGFzc3dvcmQ=");
+        }
+        batch.commit();
+    }
+}
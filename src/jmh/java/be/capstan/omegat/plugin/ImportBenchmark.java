@@ -0,0 +1,43 @@
+package be.capstan.omegat.plugin;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a credentials file and grouping it into a store batch, as the
+ * import does before committing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImportBenchmark {
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    private Path configDir;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        configDir = CredentialFixture.createConfigDir();
+        file = configDir.resolve("import.properties").toFile();
+        CredentialFixture.writeCredentialFile(file, CredentialFixture.urls(size));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        CredentialFixture.deleteConfigDir(configDir);
+    }
+
+    @Benchmark
+    public int parseAndGroup() throws IOException {
+        CredentialStore.Batch batch = CredentialStore.newBatch();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            new CredentialFileParser(reader).parse(batch::setCredentials);
+        }
+        return batch.size();
+    }
+}
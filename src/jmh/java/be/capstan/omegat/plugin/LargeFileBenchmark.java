@@ -0,0 +1,67 @@
+package be.capstan.omegat.plugin;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming a generated credentials file far larger than the heap through
+ * {@link CredentialFileParser}. The fork runs with {@code -Xmx64m}, so the
+ * run only completes if the parser keeps memory flat, and the
+ * {@code heapUsedMb} counter reports the most heap, garbage included, seen
+ * in use while parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx64m")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class LargeFileBenchmark {
+    @Param({ "500" })
+    public int megabytes;
+
+    private Path configDir;
+    private File file;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Memory {
+        public long entries;
+        public long heapUsedMb;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        configDir = CredentialFixture.createConfigDir();
+        file = configDir.resolve("large.properties").toFile();
+        CredentialFixture.writeLargeCredentialFile(file, megabytes * 1024L * 1024L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        CredentialFixture.deleteConfigDir(configDir);
+    }
+
+    @Benchmark
+    public long parse(Memory memory) throws IOException {
+        long[] counts = new long[2];
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            new CredentialFileParser(reader).parse((url, username, password) -> {
+                if ((++counts[0] & 0xffff) == 0) {
+                    counts[1] = Math.max(counts[1], heapUsed());
+                }
+            });
+        }
+        memory.entries = counts[0];
+        memory.heapUsedMb = Math.max(counts[1], heapUsed()) / (1024 * 1024);
+        return counts[0];
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
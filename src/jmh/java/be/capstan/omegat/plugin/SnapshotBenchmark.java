@@ -0,0 +1,63 @@
+package be.capstan.omegat.plugin;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a binary snapshot, decoding all of it, and looking up one URL in a
+ * mapped snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotBenchmark {
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    private Path configDir;
+    private Path snapshotFile;
+    private CredentialIndex.Snapshot snapshot;
+    private List<String> urls;
+    private CredentialSnapshotFile mapped;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        configDir = CredentialFixture.createConfigDir();
+        CredentialFixture.populateStore(CredentialFixture.urls(size));
+        snapshot = new CredentialIndex(CredentialStore.getStoreFile()).snapshot();
+        urls = snapshot.getUrls();
+        snapshotFile = configDir.resolve("bench.credsnap");
+        try (OutputStream out = Files.newOutputStream(snapshotFile)) {
+            CredentialSnapshotFile.write(out, urls, snapshot::get, 0, 0);
+        }
+        mapped = CredentialSnapshotFile.map(snapshotFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        CredentialFixture.deleteConfigDir(configDir);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        return CredentialSnapshotFile.write(OutputStream.nullOutputStream(), urls, snapshot::get, 0, 0);
+    }
+
+    @Benchmark
+    public int loadAll() throws IOException {
+        int[] count = { 0 };
+        CredentialSnapshotFile.read(snapshotFile).forEach((url, username, password) -> count[0]++);
+        return count[0];
+    }
+
+    @Benchmark
+    public CredentialIndex.Entry lookupOne() throws IOException {
+        return mapped.get(urls.get(ThreadLocalRandom.current().nextInt(urls.size())));
+    }
+}
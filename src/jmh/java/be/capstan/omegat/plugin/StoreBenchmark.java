@@ -0,0 +1,48 @@
+package be.capstan.omegat.plugin;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the store into the credential index (what loadUniqueUrls costs
+ * on a cold index; after the first load this is read from the binary cache)
+ * and serializing it for export.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    private Path configDir;
+    private CredentialIndex.Snapshot snapshot;
+    private List<String> urls;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        configDir = CredentialFixture.createConfigDir();
+        CredentialFixture.populateStore(CredentialFixture.urls(size));
+        snapshot = new CredentialIndex(CredentialStore.getStoreFile()).snapshot();
+        urls = snapshot.getUrls();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        CredentialFixture.deleteConfigDir(configDir);
+    }
+
+    @Benchmark
+    public List<String> loadUniqueUrls() {
+        return new CredentialIndex(CredentialStore.getStoreFile()).snapshot().getUrls();
+    }
+
+    @Benchmark
+    public int exportSerialization() throws IOException {
+        return CredentialExporter.write(Writer.nullWriter(), urls, snapshot);
+    }
+}
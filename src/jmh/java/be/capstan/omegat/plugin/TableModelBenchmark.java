@@ -0,0 +1,55 @@
+package be.capstan.omegat.plugin;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of the credentials table model behind the dialog's header
+ * clicks, refreshes and bulk actions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TableModelBenchmark {
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    private List<String> urls;
+    private CredentialsTableModel model;
+    private boolean ascending;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urls = CredentialFixture.urls(size);
+        model = new CredentialsTableModel(urls);
+        for (int row = 0; row < model.getRowCount(); row += 2) {
+            model.setValueAt(Boolean.TRUE, row, 0);
+        }
+    }
+
+    @Benchmark
+    public CredentialsTableModel buildModel() {
+        return new CredentialsTableModel(urls);
+    }
+
+    @Benchmark
+    public int sortByUrl() {
+        ascending = !ascending;
+        model.sortByUrl(ascending);
+        return model.getRowCount();
+    }
+
+    @Benchmark
+    public int refreshUnchanged() {
+        // A fresh list, so the diff runs instead of the same-snapshot shortcut
+        model.setUrls(new ArrayList<>(urls));
+        return model.getRowCount();
+    }
+
+    @Benchmark
+    public List<String> getSelectedUrls() {
+        return model.getCheckedUrls();
+    }
+}
@@ -1,12 +1,10 @@
 package be.capstan.omegat.plugin;
 
-import org.omegat.core.team2.TeamSettings;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.ResourceBundle;
 
@@ -135,16 +133,28 @@ public class AddCredentialsDialog extends JDialog {
 
         String urlText = urlField.getText();
         String username = usernameField.getText();
-        String password = new String(passwordField.getPassword());
+        // Never turned into a String; cleared whatever happens below
+        char[] password = passwordField.getPassword();
+        try {
+            save(urlText, username, password);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private void save(String urlText, String username, char[] password) {
+        int passwordStart = 0;
+        int passwordEnd = password.length;
 
         boolean strip = stripSpacesCheck.isSelected();
         if (strip) {
             urlText = trimWhitespace(urlText);
             username = trimWhitespace(username);
-            password = trimWhitespace(password);
+            passwordStart = Secrets.stripStart(password);
+            passwordEnd = Secrets.stripEnd(password, passwordStart);
         }
 
-        if (isEmpty(urlText) || isEmpty(username) || isEmpty(password)) {
+        if (isEmpty(urlText) || isEmpty(username) || passwordStart == passwordEnd) {
             statusLabel.setText(res.getString("icp.add.statusEmpty"));
             return;
         }
@@ -170,18 +180,23 @@ public class AddCredentialsDialog extends JDialog {
             if (choice != JOptionPane.YES_OPTION) {
                 return;
             }
-        } else if (strip && (username.isEmpty() || password.isEmpty())) {
+        } else if (strip && (username.isEmpty() || passwordStart == passwordEnd)) {
             statusLabel.setText(res.getString("icp.add.statusEmptyWarning"));
             return;
         }
 
-        // Check if URL already exists
+        // Check if the URL, or an equivalent spelling of it, already exists.
+        // The credentials are written as typed either way; merging spellings
+        // is left to "Collapse duplicates".
         try {
-            String existing = TeamSettings.get(urlText + "!username");
-            if (existing != null) {
+            String existingUrl = CredentialIndex.getInstance().snapshot().findEquivalent(urlText);
+            if (existingUrl != null) {
+                String message = existingUrl.equals(urlText)
+                        ? res.getString("icp.add.urlExists").replace("{URL}", existingUrl)
+                        : res.getString("icp.add.urlEquivalent").replace("{URL}", existingUrl);
                 int choice = JOptionPane.showConfirmDialog(
                         this,
-                        res.getString("icp.add.urlExists").replace("{URL}", urlText),
+                        message,
                         res.getString("icp.add.urlExistsTitle"),
                         JOptionPane.YES_NO_OPTION,
                         JOptionPane.WARNING_MESSAGE
@@ -194,12 +209,12 @@ public class AddCredentialsDialog extends JDialog {
             // Continue anyway
         }
 
-        String base64Password = Base64.getEncoder()
-                .encodeToString(password.getBytes(StandardCharsets.UTF_8));
+        String base64Password = Secrets.encode(password, passwordStart, passwordEnd);
 
         try {
-            TeamSettings.set(urlText + "!username", username);
-            TeamSettings.set(urlText + "!password", base64Password);
+            CredentialStore.Batch batch = CredentialStore.newBatch();
+            batch.setCredentials(urlText, username, base64Password);
+            batch.commit(CredentialJournal.Kind.ADD);
 
             JOptionPane.showMessageDialog(
                     this,
@@ -235,6 +250,15 @@ public class AddCredentialsDialog extends JDialog {
         return s != null && s.trim().isEmpty();
     }
 
+    private boolean isAllWhitespace(char[] s) {
+        for (char c : s) {
+            if (c > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private String trimWhitespace(String s) {
         return s == null ? null : s.strip();
     }
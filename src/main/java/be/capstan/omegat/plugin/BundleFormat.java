@@ -0,0 +1,207 @@
+package be.capstan.omegat.plugin;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Container formats of credential files. Compression and encryption are
+ * applied while streaming: neither export nor import ever holds the
+ * uncompressed or decrypted bundle in memory.
+ * <p>
+ * On export the format follows the file name; on import it is detected from
+ * the first bytes of the file, whatever its name.
+ */
+enum BundleFormat {
+    PROPERTIES(".properties"),
+    GZIP(".properties.gz"),
+    ZIP(".zip"),
+    /** Passphrase-encrypted gzip bundle, see {@link EncryptedBundle}. */
+    ENCRYPTED(".properties.enc"),
+    /** Indexed binary snapshot, see {@link CredentialSnapshotFile}; read from files only. */
+    SNAPSHOT(".credsnap");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    BundleFormat(String extension) {
+        this.extension = extension;
+    }
+
+    String getExtension() {
+        return extension;
+    }
+
+    static BundleFormat forFileName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".gz")) {
+            return GZIP;
+        }
+        if (lower.endsWith(".zip")) {
+            return ZIP;
+        }
+        if (lower.endsWith(".enc")) {
+            return ENCRYPTED;
+        }
+        if (lower.endsWith(SNAPSHOT.extension)) {
+            return SNAPSHOT;
+        }
+        return PROPERTIES;
+    }
+
+    /**
+     * Whether a file in an imported folder should be read as credentials.
+     */
+    static boolean isImportable(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(PROPERTIES.extension) || lower.endsWith(GZIP.extension)
+                || lower.endsWith(ZIP.extension) || lower.endsWith(ENCRYPTED.extension)
+                || lower.endsWith(SNAPSHOT.extension);
+    }
+
+    /**
+     * Format of a stream from its magic bytes; the stream is left at its
+     * start.
+     */
+    static BundleFormat detect(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        int b0 = in.read();
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        in.reset();
+        if (b0 == 0x1f && b1 == 0x8b) {
+            return GZIP;
+        }
+        if (b0 == 'P' && b1 == 'K' && b2 == 3 && b3 == 4) {
+            return ZIP;
+        }
+        byte[] magic = EncryptedBundle.MAGIC;
+        if (b0 == magic[0] && b1 == magic[1] && b2 == magic[2] && b3 == magic[3]) {
+            return ENCRYPTED;
+        }
+        magic = CredentialSnapshotFile.MAGIC;
+        if (b0 == magic[0] && b1 == magic[1] && b2 == magic[2] && b3 == magic[3]) {
+            return SNAPSHOT;
+        }
+        return PROPERTIES;
+    }
+
+    /**
+     * Supplies the passphrase of an encrypted bundle; the caller clears the
+     * returned array after use.
+     */
+    interface PassphraseProvider {
+        /**
+         * @return the passphrase, or {@code null} if the user cancelled
+         */
+        char[] getPassphrase(String source) throws IOException;
+    }
+
+    /**
+     * Compressing (and for {@link #ENCRYPTED}, encrypting) stream for a
+     * bundle named {@code fileName}; closing it finishes the bundle. A zip
+     * holds a single {@code .properties} entry.
+     *
+     * @param passphrase only used for {@link #ENCRYPTED}, and not kept
+     */
+    OutputStream wrap(OutputStream out, String fileName, char[] passphrase) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE);
+            case ENCRYPTED:
+                if (passphrase == null || passphrase.length == 0) {
+                    throw new IOException("A passphrase is required for " + fileName);
+                }
+                return new GZIPOutputStream(EncryptedBundle.encrypt(out, passphrase), BUFFER_SIZE);
+            case ZIP:
+                ZipOutputStream zip = new ZipOutputStream(out);
+                zip.putNextEntry(new ZipEntry(entryName(fileName)));
+                return zip;
+            case SNAPSHOT:
+                throw new IOException("Binary snapshots are written by CredentialSnapshotFile");
+            default:
+                return out;
+        }
+    }
+
+    private static String entryName(String fileName) {
+        String name = fileName;
+        if (name.toLowerCase(Locale.ROOT).endsWith(ZIP.extension)) {
+            name = name.substring(0, name.length() - ZIP.extension.length());
+        }
+        return name.toLowerCase(Locale.ROOT).endsWith(PROPERTIES.extension) ? name : name + PROPERTIES.extension;
+    }
+
+    /**
+     * Receives each credential file found in an input bundle.
+     */
+    interface EntryHandler {
+        void onEntry(InputStream in) throws IOException;
+    }
+
+    /**
+     * Detect the format of {@code in} and hand each contained credential
+     * file to the handler, decrypting and decompressing on the fly: a plain
+     * or gzip file is one entry, a zip is every {@code .properties} file in
+     * it, an encrypted bundle is whatever it contains.
+     *
+     * @param source name of the input, shown when asking for a passphrase
+     * @param passphrases asked for encrypted input; may be {@code null} if
+     *        none is expected
+     * @throws CancellationException if the user did not give a passphrase
+     */
+    static void read(InputStream in, String source, PassphraseProvider passphrases,
+            EntryHandler handler) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        switch (detect(buffered)) {
+            case ENCRYPTED:
+                char[] passphrase = passphrases != null ? passphrases.getPassphrase(source) : null;
+                if (passphrase == null) {
+                    if (passphrases == null) {
+                        throw new IOException(source + " is encrypted, but no passphrase was given");
+                    }
+                    throw new CancellationException();
+                }
+                InputStream decrypted;
+                try {
+                    decrypted = EncryptedBundle.decrypt(buffered, passphrase);
+                } finally {
+                    Arrays.fill(passphrase, '\0');
+                }
+                read(decrypted, source, passphrases, handler);
+                // Verify every remaining chunk, even if the handler stopped early
+                decrypted.transferTo(OutputStream.nullOutputStream());
+                break;
+            case GZIP:
+                handler.onEntry(new GZIPInputStream(buffered, BUFFER_SIZE));
+                break;
+            case SNAPSHOT:
+                // Needs random access: only read as a file of its own, see ParallelFileParser
+                throw new IOException(source + ": a binary snapshot cannot be read inside another bundle");
+            case ZIP:
+                ZipInputStream zip = new ZipInputStream(buffered);
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                    if (!entry.isDirectory()
+                            && entry.getName().toLowerCase(Locale.ROOT).endsWith(PROPERTIES.extension)) {
+                        handler.onEntry(new FilterInputStream(zip) {
+                            @Override
+                            public void close() {
+                                // The next entry is read from the same stream
+                            }
+                        });
+                    }
+                }
+                break;
+            default:
+                handler.onEntry(buffered);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package be.capstan.omegat.plugin;
+
+import javax.swing.SwingUtilities;
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder events of the plugin's operations, shown in JDK Mission
+ * Control under OmegaT / Credentials.
+ * <p>
+ * Call sites create the event, call {@code begin()} before the operation and
+ * only fill in and commit it if {@code shouldCommit()}, so an event costs
+ * next to nothing while no recording is running.
+ */
+public final class CredentialEvents {
+
+    private CredentialEvents() {
+    }
+
+    @Category({ "OmegaT", "Credentials" })
+    @StackTrace(false)
+    abstract static class CredentialEvent extends Event {
+        @Label("On EDT")
+        @Description("Whether the operation ran on the Swing event dispatch thread")
+        boolean onEdt;
+
+        /**
+         * Fill in the thread information and commit.
+         */
+        void finish() {
+            onEdt = SwingUtilities.isEventDispatchThread();
+            commit();
+        }
+    }
+
+    @Name("be.capstan.omegat.plugin.CredentialImport")
+    @Label("Credential Import")
+    @Description("Parsing a credentials file into a pending batch")
+    static final class Import extends CredentialEvent {
+        @Label("File")
+        String file;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Cancelled")
+        boolean cancelled;
+    }
+
+    @Name("be.capstan.omegat.plugin.CredentialStoreCommit")
+    @Label("Credential Store Commit")
+    @Description("Writing a batch of changes to repositories.properties")
+    static final class StoreCommit extends CredentialEvent {
+        @Label("Entries")
+        int entries;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Fallback")
+        @Description("Whether the batch was applied key by key through TeamSettings")
+        boolean fallback;
+    }
+
+    @Name("be.capstan.omegat.plugin.CredentialTableRefresh")
+    @Label("Credential Table Refresh")
+    @Description("Synchronizing the Manage Credentials table with the store")
+    static final class TableRefresh extends CredentialEvent {
+        @Label("Entries")
+        int entries;
+    }
+
+    @Name("be.capstan.omegat.plugin.CredentialExport")
+    @Label("Credential Export")
+    @Description("Writing credentials to an export file")
+    static final class Export extends CredentialEvent {
+        @Label("File")
+        String file;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("be.capstan.omegat.plugin.CredentialDelete")
+    @Label("Credential Delete")
+    @Description("Removing the credentials of the selected URLs")
+    static final class Delete extends CredentialEvent {
+        @Label("Requested")
+        int requested;
+
+        @Label("Entries")
+        int entries;
+    }
+}
@@ -0,0 +1,158 @@
+package be.capstan.omegat.plugin;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Writes credentials in Java {@code .properties} format, optionally
+ * compressed into a gzip or zip bundle (see {@link BundleFormat}).
+ * <p>
+ * Entries are streamed straight to a temporary file next to the target, using
+ * the same escaping as {@link Properties#store(Writer, String)}, and the file
+ * is then moved into place so that a failed export never leaves a truncated
+ * file behind.
+ */
+public class CredentialExporter {
+
+    private CredentialExporter() {
+    }
+
+    /**
+     * Export the credentials of the given URLs from the store. A target named
+     * {@code *.gz} or {@code *.zip} receives a compressed bundle.
+     *
+     * @return the number of URLs for which at least one value was written
+     */
+    public static int export(Iterable<String> urls, File target) throws IOException {
+        return export(urls, target, null);
+    }
+
+    /**
+     * Export the credentials of the given URLs from the store, encrypting
+     * the bundle with the passphrase if the target is named {@code *.enc}.
+     *
+     * @param passphrase required for encrypted bundles; not kept or cleared
+     * @return the number of URLs for which at least one value was written
+     */
+    public static int export(Iterable<String> urls, File target, char[] passphrase) throws IOException {
+        long start = System.nanoTime();
+        CredentialEvents.Export event = new CredentialEvents.Export();
+        event.begin();
+        CredentialIndex.Snapshot store = CredentialIndex.getInstance().snapshot();
+
+        File file = target.getAbsoluteFile();
+        Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        try {
+            int count;
+            BundleFormat format = BundleFormat.forFileName(file.getName());
+            if (format == BundleFormat.SNAPSHOT) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                    count = CredentialSnapshotFile.write(out, urls, store::get, 0, 0);
+                }
+            } else {
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(format.wrap(
+                        new BufferedOutputStream(Files.newOutputStream(tmp)), file.getName(), passphrase),
+                        StandardCharsets.UTF_8))) {
+                    count = write(writer, urls, store);
+                }
+            }
+            long bytesWritten = event.isEnabled() ? Files.size(tmp) : 0;
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            CredentialMetrics.record(CredentialMetrics.Operation.EXPORT, start, count);
+            if (event.shouldCommit()) {
+                event.file = file.getPath();
+                event.entries = count;
+                event.bytesWritten = bytesWritten;
+                event.finish();
+            }
+            return count;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static int write(Writer writer, Iterable<String> urls, CredentialIndex.Snapshot store)
+            throws IOException {
+        writer.write("#" + new Date());
+        writer.write(System.lineSeparator());
+
+        int count = 0;
+        for (String url : urls) {
+            CredentialIndex.Entry entry = store.get(url);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.getUsername() != null) {
+                writeEntry(writer, url + CredentialStore.USERNAME_SUFFIX, entry.getUsername());
+            }
+            if (entry.getPassword() != null) {
+                writeEntry(writer, url + CredentialStore.PASSWORD_SUFFIX, entry.getPassword());
+            }
+            count++;
+        }
+        return count;
+    }
+
+    static void writeEntry(Writer writer, String key, String value) throws IOException {
+        writeEscaped(writer, key, true);
+        writer.write('=');
+        writeEscaped(writer, value, false);
+        writer.write(System.lineSeparator());
+    }
+
+    /**
+     * Same rules as Properties.saveConvert for a Writer target: non-ASCII
+     * characters are written as-is.
+     */
+    private static void writeEscaped(Writer writer, String s, boolean escapeSpace) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c > 61 && c < 127) {
+                if (c == '\\') {
+                    writer.write("\\\\");
+                } else {
+                    writer.write(c);
+                }
+                continue;
+            }
+            switch (c) {
+                case ' ':
+                    if (i == 0 || escapeSpace) {
+                        writer.write('\\');
+                    }
+                    writer.write(' ');
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\f':
+                    writer.write("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    writer.write('\\');
+                    writer.write(c);
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package be.capstan.omegat.plugin;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming reader for credential files in Java {@code .properties} format.
+ * <p>
+ * Unlike {@link java.util.Properties#load(Reader)} the file is never held in
+ * memory as a whole: each logical line is decoded with the same escape and
+ * line-continuation rules, keys other than {@code <url>!username} and
+ * {@code <url>!password} are dropped, and a URL is handed to the
+ * {@link Handler} as soon as both of its values have been seen. URLs that only
+ * have one of the two keys are delivered at the end of the file.
+ */
+public class CredentialFileParser {
+
+    /**
+     * Receives the credentials of one URL. Either value may be {@code null}
+     * when the file only contains the other key.
+     */
+    public interface Handler {
+        void onCredentials(String url, String username, String password);
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferLen;
+    private int bufferPos;
+    private boolean skipLF;
+
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder decoded = new StringBuilder();
+
+    // URLs for which only one of username/password has been seen so far
+    private final Map<String, String[]> pending = new HashMap<>();
+    private long entriesRead;
+
+    public CredentialFileParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Number of credential keys read so far.
+     */
+    public long getEntriesRead() {
+        return entriesRead;
+    }
+
+    public void parse(Handler handler) throws IOException {
+        while (readLogicalLine()) {
+            int len = line.length();
+            int keyEnd = 0;
+            int valueStart = len;
+            boolean hasSep = false;
+            boolean precedingBackslash = false;
+
+            while (keyEnd < len) {
+                char c = line.charAt(keyEnd);
+                if ((c == '=' || c == ':') && !precedingBackslash) {
+                    valueStart = keyEnd + 1;
+                    hasSep = true;
+                    break;
+                } else if (isWhitespace(c) && !precedingBackslash) {
+                    valueStart = keyEnd + 1;
+                    break;
+                }
+                precedingBackslash = c == '\\' && !precedingBackslash;
+                keyEnd++;
+            }
+            while (valueStart < len) {
+                char c = line.charAt(valueStart);
+                if (!isWhitespace(c)) {
+                    if (!hasSep && (c == '=' || c == ':')) {
+                        hasSep = true;
+                    } else {
+                        break;
+                    }
+                }
+                valueStart++;
+            }
+
+            String key = unescape(0, keyEnd);
+            boolean isUsername = key.endsWith(CredentialStore.USERNAME_SUFFIX);
+            if (!isUsername && !key.endsWith(CredentialStore.PASSWORD_SUFFIX)) {
+                continue;
+            }
+            entriesRead++;
+
+            int bangIndex = key.lastIndexOf('!');
+            String url = key.substring(0, bangIndex);
+            String value = unescape(valueStart, len);
+
+            String[] creds = pending.get(url);
+            if (creds == null) {
+                creds = new String[2];
+                pending.put(url, creds);
+            }
+            creds[isUsername ? 0 : 1] = value;
+            if (creds[0] != null && creds[1] != null) {
+                pending.remove(url);
+                handler.onCredentials(url, creds[0], creds[1]);
+            }
+        }
+
+        for (Map.Entry<String, String[]> entry : pending.entrySet()) {
+            handler.onCredentials(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Read the next logical line into {@link #line}, skipping blank lines and
+     * comments and joining continuation lines. Escapes are left in place.
+     */
+    private boolean readLogicalLine() throws IOException {
+        line.setLength(0);
+        boolean atLineStart = true;
+        boolean inComment = false;
+        int c;
+
+        while ((c = read()) >= 0) {
+            if (c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    skipLF = true;
+                }
+                if (inComment || line.length() == 0) {
+                    // Comment or blank line: start over with the next one
+                    inComment = false;
+                    atLineStart = true;
+                    continue;
+                }
+                if (endsWithOddBackslashes()) {
+                    line.setLength(line.length() - 1);
+                    atLineStart = true;
+                    continue;
+                }
+                return true;
+            }
+            if (inComment) {
+                continue;
+            }
+            if (atLineStart) {
+                if (isWhitespace((char) c)) {
+                    continue;
+                }
+                if (line.length() == 0 && (c == '#' || c == '!')) {
+                    inComment = true;
+                    continue;
+                }
+                atLineStart = false;
+            }
+            line.append((char) c);
+        }
+
+        if (line.length() > 0 && endsWithOddBackslashes()) {
+            line.setLength(line.length() - 1);
+        }
+        return line.length() > 0;
+    }
+
+    private int read() throws IOException {
+        while (true) {
+            if (bufferPos >= bufferLen) {
+                bufferLen = reader.read(buffer, 0, BUFFER_SIZE);
+                bufferPos = 0;
+                if (bufferLen <= 0) {
+                    return -1;
+                }
+            }
+            char c = buffer[bufferPos++];
+            if (skipLF) {
+                skipLF = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            return c;
+        }
+    }
+
+    private boolean endsWithOddBackslashes() {
+        int count = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            count++;
+        }
+        return (count & 1) == 1;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    /**
+     * Decode the escapes of {@code line[start, end)} as Properties.load does.
+     */
+    private String unescape(int start, int end) {
+        decoded.setLength(0);
+        int i = start;
+        while (i < end) {
+            char c = line.charAt(i++);
+            if (c != '\\' || i >= end) {
+                decoded.append(c);
+                continue;
+            }
+            c = line.charAt(i++);
+            if (c == 'u') {
+                if (i + 4 > end) {
+                    throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                }
+                int value = 0;
+                for (int j = 0; j < 4; j++) {
+                    int digit = Character.digit(line.charAt(i++), 16);
+                    if (digit < 0) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                    }
+                    value = (value << 4) | digit;
+                }
+                decoded.append((char) value);
+            } else if (c == 't') {
+                decoded.append('\t');
+            } else if (c == 'r') {
+                decoded.append('\r');
+            } else if (c == 'n') {
+                decoded.append('\n');
+            } else if (c == 'f') {
+                decoded.append('\f');
+            } else {
+                decoded.append(c);
+            }
+        }
+        return decoded.toString();
+    }
+}
@@ -0,0 +1,396 @@
+package be.capstan.omegat.plugin;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+/**
+ * In-memory view of the credentials store, shared by all dialogs.
+ * <p>
+ * The store is read once into URL records and kept until repositories.properties
+ * changes on disk (different modification time or size) or a
+ * {@link CredentialStore.Batch} is committed. Callers that need several
+ * lookups should take one {@link Snapshot} and work on it.
+ * <p>
+ * After parsing the store, a binary copy ({@link CredentialSnapshotFile}) is
+ * written next to it in the background. Later loads, including those of the
+ * next session, decode that copy instead of parsing the properties, as long
+ * as its recorded length and CRC32C still match the store file.
+ */
+public class CredentialIndex {
+
+    /**
+     * Username and (Base64-encoded) password stored for one URL. Either may be
+     * {@code null} if the store only holds the other key.
+     */
+    public static final class Entry {
+        private final String username;
+        private final String password;
+
+        Entry(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+    }
+
+    /**
+     * Immutable content of the store at one point in time.
+     */
+    public static final class Snapshot {
+        private final Map<String, Entry> entries;
+        private final List<String> urls;
+        private final long lastModified;
+        private final long length;
+        // Stored URL by canonical form, built on first use
+        private Map<String, String> canonical;
+
+        Snapshot(Map<String, Entry> entries, long lastModified, long length) {
+            this(entries, new ArrayList<>(entries.keySet()), lastModified, length);
+        }
+
+        /**
+         * @param urls the keys of {@code entries}; only sorted if not already
+         *        in order
+         */
+        Snapshot(Map<String, Entry> entries, List<String> urls, long lastModified, long length) {
+            this.entries = entries;
+            if (!isSorted(urls)) {
+                Collections.sort(urls);
+            }
+            this.urls = Collections.unmodifiableList(urls);
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        /**
+         * All URLs with credentials, sorted.
+         */
+        public List<String> getUrls() {
+            return urls;
+        }
+
+        public Entry get(String url) {
+            return entries.get(url);
+        }
+
+        public boolean contains(String url) {
+            return entries.containsKey(url);
+        }
+
+        /**
+         * The stored URL equivalent to {@code url} (see
+         * {@link UrlCanonicalizer}): the URL itself if stored, else the first
+         * stored URL with the same canonical form, or {@code null}.
+         */
+        public String findEquivalent(String url) {
+            if (entries.containsKey(url)) {
+                return url;
+            }
+            Map<String, String> byCanonical;
+            synchronized (this) {
+                if (canonical == null) {
+                    canonical = new HashMap<>(urls.size() * 4 / 3 + 1);
+                    for (String stored : urls) {
+                        canonical.putIfAbsent(UrlCanonicalizer.canonicalize(stored), stored);
+                    }
+                }
+                byCanonical = canonical;
+            }
+            return byCanonical.get(UrlCanonicalizer.canonicalize(url));
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * A copy with the given URLs replaced, or removed where their entry
+         * is {@code null}, keeping the URLs in order without re-sorting them
+         * all.
+         */
+        Snapshot apply(Map<String, Entry> changed, long lastModified, long length) {
+            Map<String, Entry> newEntries = new HashMap<>(entries);
+            List<String> added = new ArrayList<>();
+            for (Map.Entry<String, Entry> change : changed.entrySet()) {
+                if (change.getValue() == null) {
+                    newEntries.remove(change.getKey());
+                } else if (newEntries.put(change.getKey(), change.getValue()) == null) {
+                    added.add(change.getKey());
+                }
+            }
+            Collections.sort(added);
+
+            List<String> newUrls = new ArrayList<>(newEntries.size());
+            int next = 0;
+            for (String url : urls) {
+                if (!newEntries.containsKey(url)) {
+                    continue;
+                }
+                while (next < added.size() && added.get(next).compareTo(url) < 0) {
+                    newUrls.add(added.get(next++));
+                }
+                newUrls.add(url);
+            }
+            newUrls.addAll(added.subList(next, added.size()));
+            return new Snapshot(newEntries, newUrls, lastModified, length);
+        }
+
+        private static boolean isSorted(List<String> urls) {
+            for (int i = 1; i < urls.size(); i++) {
+                if (urls.get(i - 1).compareTo(urls.get(i)) > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final String CACHE_FILE_NAME = "repositories.credsnap";
+
+    private static final ExecutorService cacheWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Credentials cache writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static CredentialIndex instance;
+
+    private final File file;
+    private final File cacheFile;
+    private Snapshot snapshot;
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    private final List<UrlChangeListener> urlChangeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Receives the URLs changed by each commit made through the plugin.
+     */
+    public interface UrlChangeListener {
+        /**
+         * @param changed the new credentials of each changed URL, {@code null}
+         *        for URLs left without any; or {@code null} as a whole if the
+         *        changes are unknown, e.g. after a failed commit
+         */
+        void onUrlsChanged(Map<String, Entry> changed);
+    }
+
+    CredentialIndex(File file) {
+        this.file = file;
+        this.cacheFile = new File(file.getAbsoluteFile().getParentFile(), CACHE_FILE_NAME);
+    }
+
+    public static synchronized CredentialIndex getInstance() {
+        if (instance == null) {
+            instance = new CredentialIndex(CredentialStore.getStoreFile());
+        }
+        return instance;
+    }
+
+    /**
+     * Current content of the store, re-read only if the file has changed.
+     */
+    public synchronized Snapshot snapshot() {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (snapshot == null || snapshot.lastModified != lastModified || snapshot.length != length) {
+            snapshot = load(lastModified, length);
+        }
+        return snapshot;
+    }
+
+    public List<String> getUrls() {
+        return snapshot().getUrls();
+    }
+
+    public Entry get(String url) {
+        return snapshot().get(url);
+    }
+
+    /**
+     * Force a re-read on next access, for changes that may not alter the
+     * file's modification time or size.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            snapshot = null;
+        }
+        // Outside the lock: listeners may read a new snapshot from another thread
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Update after a commit, telling {@link UrlChangeListener}s which URLs
+     * it changed. The current snapshot is patched with the new entries
+     * rather than re-read; only a failed commit ({@code changed} is
+     * {@code null}) forces a full re-read.
+     *
+     * @param changed as for {@link UrlChangeListener#onUrlsChanged}
+     */
+    void invalidate(Map<String, Entry> changed) {
+        for (UrlChangeListener listener : urlChangeListeners) {
+            listener.onUrlsChanged(changed);
+        }
+        if (changed == null) {
+            invalidate();
+            return;
+        }
+        synchronized (this) {
+            if (snapshot != null) {
+                // The commit has just written the file; a write by someone else in
+                // between would go unnoticed until the next one
+                snapshot = snapshot.apply(changed, file.lastModified(), file.length());
+            }
+        }
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Be told about every {@link #invalidate()}, i.e. every change made
+     * through the plugin. Listeners run on the thread that made the change.
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Be told which URLs each commit changed, before the
+     * {@link #addChangeListener change listeners} run, on the same thread.
+     */
+    public void addUrlChangeListener(UrlChangeListener listener) {
+        urlChangeListeners.add(listener);
+    }
+
+    private Snapshot load(long lastModified, long length) {
+        if (!file.exists()) {
+            return new Snapshot(new HashMap<>(), lastModified, length);
+        }
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException ex) {
+            System.err.println("Import/Export Credentials plugin: Error reading credentials: "
+                    + ex.getMessage());
+            return new Snapshot(new HashMap<>(), lastModified, length);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+
+        Snapshot cached = loadCache(content.length, crc.getValue(), lastModified, length);
+        if (cached != null) {
+            return cached;
+        }
+        Snapshot parsed = parse(content, lastModified, length);
+        writeCache(parsed, content.length, crc.getValue());
+        return parsed;
+    }
+
+    /**
+     * Content of the binary cache, or {@code null} if there is none or it was
+     * built from a different store file.
+     */
+    private Snapshot loadCache(long sourceLength, long sourceCrc, long lastModified, long length) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            // Read onto the heap rather than mapped, so the cache can be replaced while in use
+            CredentialSnapshotFile cache = CredentialSnapshotFile.read(cacheFile.toPath());
+            if (cache.getSourceLength() != sourceLength || cache.getSourceCrc() != sourceCrc) {
+                return null;
+            }
+            Map<String, Entry> entries = new HashMap<>(cache.size() * 4 / 3 + 1);
+            List<String> urls = new ArrayList<>(cache.size());
+            cache.forEach((url, username, password) -> {
+                entries.put(url, new Entry(username, password));
+                urls.add(url);
+            });
+            return new Snapshot(entries, urls, lastModified, length);
+        } catch (IOException ex) {
+            System.err.println("Import/Export Credentials plugin: Ignoring credentials cache: "
+                    + ex.getMessage());
+            return null;
+        }
+    }
+
+    private void writeCache(Snapshot snapshot, long sourceLength, long sourceCrc) {
+        cacheWriter.execute(() -> {
+            Path tmp = null;
+            try {
+                tmp = Files.createTempFile(cacheFile.getParentFile().toPath(), CACHE_FILE_NAME, ".tmp");
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                    CredentialSnapshotFile.write(out, snapshot.getUrls(), snapshot::get, sourceLength, sourceCrc);
+                }
+                try {
+                    Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Import/Export Credentials plugin: Cannot write credentials cache: "
+                        + ex.getMessage());
+            } finally {
+                if (tmp != null) {
+                    try {
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException ex) {
+                        // Nothing left to clean up
+                    }
+                }
+            }
+        });
+    }
+
+    private Snapshot parse(byte[] content, long lastModified, long length) {
+        Properties props = new Properties();
+        try {
+            props.load(new ByteArrayInputStream(content));
+        } catch (IOException ex) {
+            System.err.println("Import/Export Credentials plugin: Error reading credentials: "
+                    + ex.getMessage());
+            props = new Properties();
+        }
+
+        Map<String, String[]> values = new HashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            boolean isUsername = key.endsWith(CredentialStore.USERNAME_SUFFIX);
+            if (!isUsername && !key.endsWith(CredentialStore.PASSWORD_SUFFIX)) {
+                continue;
+            }
+            int idx = key.lastIndexOf('!');
+            if (idx > 0) {
+                values.computeIfAbsent(key.substring(0, idx), k -> new String[2])
+                        [isUsername ? 0 : 1] = props.getProperty(key);
+            }
+        }
+
+        Map<String, Entry> entries = new HashMap<>(values.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String[]> value : values.entrySet()) {
+            entries.put(value.getKey(), new Entry(value.getValue()[0], value.getValue()[1]));
+        }
+        return new Snapshot(entries, lastModified, length);
+    }
+}
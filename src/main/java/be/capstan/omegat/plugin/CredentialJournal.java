@@ -0,0 +1,660 @@
+package be.capstan.omegat.plugin;
+
+import org.omegat.core.team2.TeamSettings;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only record of the changes made to the store through the dialogs,
+ * so that they can be undone.
+ * <p>
+ * Every journaled {@link CredentialStore.Batch#commit(Kind) commit} appends
+ * one record with the value of each changed key before and after the
+ * commit; undoing appends a record naming the operations undone. Nothing is
+ * rewritten on commit, so the cost of the journal is proportional to the
+ * size of the change, not of the store. Only a summary of each operation is
+ * kept in memory; its values are read back from the file when it is undone.
+ * <p>
+ * Layout of repositories.journal, next to the store: {@link #MAGIC} and a
+ * version byte, then records, each its payload length, the payload and its
+ * CRC32C. A record cut off by a crash is ignored and overwritten by the next
+ * one. Once the file holds more than {@link #MAX_RECORDS} records or
+ * {@link #MAX_BYTES} bytes, it is compacted to the newest
+ * {@link #KEEP_OPERATIONS} operations not undone; older ones can no longer
+ * be undone.
+ * <p>
+ * The journal holds credentials, including those of deleted URLs until
+ * compaction drops them, and is as sensitive as the store itself.
+ */
+public class CredentialJournal {
+    static final String JOURNAL_FILE_NAME = "repositories.journal";
+    static final byte[] MAGIC = { 'O', 'T', 'C', 'J' };
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    // Length and CRC around each payload
+    private static final int FRAME_LENGTH = 8;
+
+    private static final byte OPERATION = 1;
+    private static final byte UNDONE = 2;
+
+    static final int KEEP_OPERATIONS = 50;
+    static final int MAX_RECORDS = 2 * KEEP_OPERATIONS;
+    static final long MAX_BYTES = 32L << 20;
+
+    /**
+     * What a journaled operation was.
+     */
+    public enum Kind {
+        IMPORT, ADD, EDIT, DELETE, COLLAPSE
+    }
+
+    /**
+     * Summary of one journaled operation.
+     */
+    public static final class Operation {
+        private final long sequence;
+        private final long time;
+        private final Kind kind;
+        private final int urlCount;
+        // Position of the record in the file, framing included
+        private long offset;
+        private final long length;
+        private boolean undone;
+
+        Operation(long sequence, long time, Kind kind, int urlCount, long offset, long length) {
+            this.sequence = sequence;
+            this.time = time;
+            this.kind = kind;
+            this.urlCount = urlCount;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Number increasing with every operation, never reused.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * When it was committed, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Number of URLs whose credentials it changed.
+         */
+        public int getUrlCount() {
+            return urlCount;
+        }
+    }
+
+    /**
+     * Outcome of {@link #undo}.
+     */
+    public static final class UndoResult {
+        private final int operations;
+        private final int restored;
+        private final int skipped;
+
+        UndoResult(int operations, int restored, int skipped) {
+            this.operations = operations;
+            this.restored = restored;
+            this.skipped = skipped;
+        }
+
+        public int getOperations() {
+            return operations;
+        }
+
+        /**
+         * Number of keys set back to their previous value.
+         */
+        public int getRestored() {
+            return restored;
+        }
+
+        /**
+         * Number of keys left alone because they were changed again since,
+         * by another operation or outside the plugin.
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+    }
+
+    private static final class Change {
+        final String key;
+        final String before;
+        final String after;
+
+        Change(String key, String before, String after) {
+            this.key = key;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private static CredentialJournal instance;
+
+    private final File file;
+    // All operations in the file, oldest first
+    private final List<Operation> operations = new ArrayList<>();
+    private boolean loaded;
+    private int records;
+    // End of the last intact record
+    private long validLength;
+    private long nextSequence = 1;
+
+    CredentialJournal(File file) {
+        this.file = file;
+    }
+
+    public static synchronized CredentialJournal getInstance() {
+        if (instance == null) {
+            instance = new CredentialJournal(
+                    new File(CredentialStore.getStoreFile().getAbsoluteFile().getParentFile(), JOURNAL_FILE_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * Operations that can be undone, newest first.
+     */
+    public synchronized List<Operation> getOperations() {
+        ensureLoaded();
+        List<Operation> live = new ArrayList<>();
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            if (!operations.get(i).undone) {
+                live.add(operations.get(i));
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Append an operation; keys whose value did not change are left out.
+     * Called by {@link CredentialStore.Batch#commit(Kind)} while it holds
+     * the store lock, so records are in commit order.
+     *
+     * @param before previous value of each changed key, {@code null} if it
+     *        was absent
+     * @param after new value of each key, {@code null} if removed
+     * @return the sequence number of the operation, or 0 if nothing was
+     *         recorded
+     */
+    synchronized long record(Kind kind, Map<String, String> before, Map<String, String> after) {
+        ensureLoaded();
+        int changes = 0;
+        Set<String> urls = new HashSet<>();
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            if (!Objects.equals(before.get(e.getKey()), e.getValue())) {
+                changes++;
+                String url = CredentialStore.urlOf(e.getKey());
+                urls.add(url != null ? url : e.getKey());
+            }
+        }
+        if (changes == 0) {
+            return 0;
+        }
+
+        long sequence = nextSequence;
+        long time = System.currentTimeMillis();
+        int changeCount = changes;
+        try {
+            long offset = append(out -> {
+                out.writeByte(OPERATION);
+                out.writeLong(sequence);
+                out.writeLong(time);
+                out.writeUTF(kind.name());
+                out.writeInt(urls.size());
+                out.writeInt(changeCount);
+                for (Map.Entry<String, String> e : after.entrySet()) {
+                    String previous = before.get(e.getKey());
+                    if (!Objects.equals(previous, e.getValue())) {
+                        writeString(out, e.getKey());
+                        writeString(out, previous);
+                        writeString(out, e.getValue());
+                    }
+                }
+            });
+            nextSequence++;
+            operations.add(new Operation(sequence, time, kind, urls.size(), offset, validLength - offset));
+            compactIfNeeded();
+            return sequence;
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Import/Export Credentials plugin: Cannot write the journal, "
+                    + "this operation cannot be undone: " + ex.getMessage());
+            // Re-read whatever is intact on next use
+            loaded = false;
+            return 0;
+        }
+    }
+
+    /**
+     * Record that the given operations were undone by committing the undo
+     * batch returned with them.
+     */
+    synchronized void markUndone(long... sequences) {
+        ensureLoaded();
+        try {
+            append(out -> {
+                out.writeByte(UNDONE);
+                out.writeInt(sequences.length);
+                for (long sequence : sequences) {
+                    out.writeLong(sequence);
+                }
+            });
+            setUndone(sequences);
+            compactIfNeeded();
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Import/Export Credentials plugin: Cannot write the journal: "
+                    + ex.getMessage());
+            loaded = false;
+        }
+    }
+
+    /**
+     * Undo the given operation and all later ones with a single store
+     * commit. A key is only set back while it still holds the value an
+     * undone operation left in it, so changes made since by other means are
+     * kept.
+     *
+     * @param oldest sequence number of the oldest operation to undo
+     */
+    public UndoResult undo(long oldest) throws IOException {
+        // Same lock order as a commit: store, then journal
+        synchronized (TeamSettings.class) {
+            synchronized (this) {
+                ensureLoaded();
+                List<Operation> undone = new ArrayList<>();
+                for (Operation operation : getOperations()) {
+                    if (operation.sequence >= oldest) {
+                        undone.add(operation);
+                    }
+                }
+                if (undone.isEmpty()) {
+                    return new UndoResult(0, 0, 0);
+                }
+
+                Properties current = CredentialStore.load(CredentialStore.getStoreFile());
+                // Value each key goes back to, working back from the newest operation
+                Map<String, String> target = new LinkedHashMap<>();
+                Set<String> conflicting = new HashSet<>();
+                for (Operation operation : undone) {
+                    for (Change change : readChanges(operation)) {
+                        if (conflicting.contains(change.key)) {
+                            continue;
+                        }
+                        String value = target.containsKey(change.key) ? target.get(change.key)
+                                : current.getProperty(change.key);
+                        if (Objects.equals(value, change.after)) {
+                            target.put(change.key, change.before);
+                        } else {
+                            conflicting.add(change.key);
+                        }
+                    }
+                }
+
+                CredentialStore.Batch batch = CredentialStore.newBatch();
+                for (Map.Entry<String, String> e : target.entrySet()) {
+                    if (!Objects.equals(e.getValue(), current.getProperty(e.getKey()))) {
+                        batch.set(e.getKey(), e.getValue());
+                    }
+                }
+                int restored = batch.size();
+                batch.commit();
+
+                long[] sequences = new long[undone.size()];
+                for (int i = 0; i < sequences.length; i++) {
+                    sequences[i] = undone.get(i).sequence;
+                }
+                markUndone(sequences);
+                return new UndoResult(undone.size(), restored, conflicting.size());
+            }
+        }
+    }
+
+    private void setUndone(long[] sequences) {
+        for (long sequence : sequences) {
+            for (Operation operation : operations) {
+                if (operation.sequence == sequence) {
+                    operation.undone = true;
+                }
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        operations.clear();
+        records = 0;
+        validLength = 0;
+        try {
+            load();
+        } catch (IOException ex) {
+            System.err.println("Import/Export Credentials plugin: Ignoring unreadable journal: "
+                    + ex.getMessage());
+            operations.clear();
+            records = 0;
+            validLength = 0;
+        }
+        for (Operation operation : operations) {
+            nextSequence = Math.max(nextSequence, operation.sequence + 1);
+        }
+        loaded = true;
+    }
+
+    /**
+     * Read the summaries of all intact records, streaming past their
+     * values.
+     */
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[MAGIC.length];
+            if (fileLength < HEADER_LENGTH) {
+                return;
+            }
+            in.readFully(magic);
+            int version = in.readUnsignedByte();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException("Not a credentials journal, or an unsupported version");
+            }
+            long position = HEADER_LENGTH;
+            List<long[]> undoneRecords = new ArrayList<>();
+            while (position + FRAME_LENGTH <= fileLength && readRecord(in, position, fileLength, undoneRecords)) {
+                position = validLength;
+            }
+            if (validLength == 0) {
+                validLength = HEADER_LENGTH;
+            }
+            for (long[] undone : undoneRecords) {
+                setUndone(undone);
+            }
+        }
+    }
+
+    /**
+     * Read the record at {@code position}.
+     *
+     * @return {@code false} if it is damaged or cut off
+     */
+    private boolean readRecord(DataInputStream in, long position, long fileLength, List<long[]> undoneRecords)
+            throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || position + FRAME_LENGTH + length > fileLength) {
+                return false;
+            }
+            CRC32C crc = new CRC32C();
+            DataInputStream payload = new DataInputStream(new CheckedInputStream(in, crc));
+            byte type = payload.readByte();
+            Operation operation = null;
+            long[] sequences = null;
+            int read = 1;
+            if (type == OPERATION) {
+                long sequence = payload.readLong();
+                long time = payload.readLong();
+                String kindName = payload.readUTF();
+                int urlCount = payload.readInt();
+                read += 8 + 8 + 2 + kindName.getBytes(StandardCharsets.UTF_8).length + 4;
+                Kind kind;
+                try {
+                    kind = Kind.valueOf(kindName);
+                } catch (IllegalArgumentException ex) {
+                    return false;
+                }
+                operation = new Operation(sequence, time, kind, urlCount, position, length + FRAME_LENGTH);
+            } else if (type == UNDONE) {
+                int count = payload.readInt();
+                read += 4;
+                if (count < 0 || count > (length - read) / 8) {
+                    return false;
+                }
+                sequences = new long[count];
+                for (int i = 0; i < count; i++) {
+                    sequences[i] = payload.readLong();
+                }
+                read += count * 8;
+            } else {
+                return false;
+            }
+            if (read > length) {
+                return false;
+            }
+            skipFully(payload, length - read);
+            if ((int) crc.getValue() != in.readInt()) {
+                return false;
+            }
+
+            if (operation != null) {
+                operations.add(operation);
+            } else {
+                undoneRecords.add(sequences);
+            }
+            records++;
+            validLength = position + FRAME_LENGTH + length;
+            return true;
+        } catch (EOFException ex) {
+            // Cut off by a crash
+            return false;
+        }
+    }
+
+    private List<Change> readChanges(Operation operation) throws IOException {
+        // The whole record, checked before anything in it is used
+        ByteBuffer record = ByteBuffer.allocate((int) operation.length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (record.hasRemaining()) {
+                if (channel.read(record, operation.offset + record.position()) < 0) {
+                    throw new IOException("The journal is damaged");
+                }
+            }
+        }
+        int length = record.getInt(0);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 4, length);
+        if (length != operation.length - FRAME_LENGTH || (int) crc.getValue() != record.getInt(4 + length)) {
+            throw new IOException("The journal is damaged");
+        }
+
+        try (DataInputStream payload = new DataInputStream(
+                new ByteArrayInputStream(record.array(), 4, length))) {
+            payload.readByte();
+            payload.readLong();
+            payload.readLong();
+            payload.readUTF();
+            payload.readInt();
+            int count = payload.readInt();
+            if (count < 0 || count > length / 12) {
+                throw new IOException("The journal is damaged");
+            }
+            List<Change> changes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                changes.add(new Change(readString(payload), readString(payload), readString(payload)));
+            }
+            return changes;
+        }
+    }
+
+    private interface Payload {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Append one framed record after the last intact one, streaming the
+     * payload to the file. Its length is filled in once written; a record
+     * left incomplete by an error is overwritten by the next one.
+     *
+     * @return its offset in the file
+     */
+    private long append(Payload payload) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        long offset;
+        long end;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (validLength < HEADER_LENGTH) {
+                validLength = 0;
+            }
+            // Drop a record cut off by a crash, or anything unreadable after the intact ones
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            if (validLength == 0) {
+                channel.write(header());
+            }
+            offset = channel.position();
+            // Length placeholder
+            channel.write(ByteBuffer.allocate(4));
+
+            CRC32C crc = new CRC32C();
+            // Buffered above the checksum, so that it is updated a block at a time
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 64 * 1024));
+            payload.writeTo(out);
+            out.flush();
+            long length = channel.position() - offset - 4;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Journal record too large");
+            }
+            channel.write(ByteBuffer.allocate(4).putInt(0, (int) crc.getValue()));
+            end = channel.position();
+            channel.write(ByteBuffer.allocate(4).putInt(0, (int) length), offset);
+        }
+        validLength = end;
+        records++;
+        return offset;
+    }
+
+    /**
+     * Rewrite the journal with only the newest operations not undone, once
+     * it has grown past its limits.
+     */
+    private void compactIfNeeded() {
+        if (records <= MAX_RECORDS && validLength <= MAX_BYTES) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Import/Export Credentials plugin: Cannot compact the journal: "
+                    + ex.getMessage());
+            // The offsets may already point into the new file
+            loaded = false;
+        }
+    }
+
+    private void compact() throws IOException {
+        List<Operation> kept = new ArrayList<>();
+        long keptBytes = 0;
+        for (int i = operations.size() - 1; i >= 0 && kept.size() < KEEP_OPERATIONS; i--) {
+            Operation operation = operations.get(i);
+            if (operation.undone) {
+                continue;
+            }
+            // Always keep the newest one, however large
+            if (!kept.isEmpty() && keptBytes + operation.length > MAX_BYTES / 2) {
+                break;
+            }
+            kept.add(operation);
+            keptBytes += operation.length;
+        }
+        if (kept.size() == records) {
+            // Nothing to drop
+            return;
+        }
+        Collections.reverse(kept);
+
+        Path target = file.toPath();
+        Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), JOURNAL_FILE_NAME, ".tmp");
+        try {
+            try (FileChannel source = FileChannel.open(target, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                out.write(header());
+                long position = HEADER_LENGTH;
+                for (Operation operation : kept) {
+                    long done = 0;
+                    while (done < operation.length) {
+                        done += source.transferTo(operation.offset + done, operation.length - done, out);
+                    }
+                    operation.offset = position;
+                    position += operation.length;
+                }
+                validLength = position;
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        operations.clear();
+        operations.addAll(kept);
+        records = kept.size();
+    }
+
+    private static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put((byte) VERSION).flip();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
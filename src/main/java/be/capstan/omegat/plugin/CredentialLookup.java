@@ -0,0 +1,337 @@
+package be.capstan.omegat.plugin;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Finds the stored credentials that apply to a repository URL, for use by
+ * other plugins:
+ * <pre>
+ * CredentialLookup.Match match = CredentialLookup.getInstance().resolve(url);
+ * </pre>
+ * The best match is the stored URL equivalent to the given one (see
+ * {@link UrlCanonicalizer}), or else the longest stored URL it starts with at
+ * a path boundary: credentials stored for {@code https://host/group} apply to
+ * {@code https://host/group/repo.git}, not to {@code https://host/groupware}.
+ * Among several stored spellings of the same URL, the one spelled exactly as
+ * asked for wins, as OmegaT itself would use it, then one for the same user.
+ * <p>
+ * Stored URLs are kept in a radix trie over their canonical form, so a lookup
+ * takes time proportional to the length of the URL, whatever the size of the
+ * store. Commits made through the plugin update only the URLs they change;
+ * the trie is rebuilt from the {@link CredentialIndex} when
+ * repositories.properties was changed by anything else, e.g. OmegaT saving
+ * credentials entered for a team project.
+ */
+public class CredentialLookup {
+
+    /**
+     * A stored URL and its credentials.
+     */
+    public static final class Match {
+        private final String url;
+        private final CredentialIndex.Entry entry;
+
+        Match(String url, CredentialIndex.Entry entry) {
+            this.url = url;
+            this.entry = entry;
+        }
+
+        /**
+         * The URL as stored, which may be a prefix of the one looked up.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        public String getUsername() {
+            return entry.getUsername();
+        }
+
+        /**
+         * The password, Base64-encoded as in the store.
+         */
+        public String getPassword() {
+            return entry.getPassword();
+        }
+    }
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Match[] NO_MATCHES = new Match[0];
+
+    /**
+     * Trie node; the path from the root spells a canonical URL prefix.
+     */
+    private static final class Node {
+        // Edge label from the parent; never empty except at the root
+        String label;
+        // Sorted by the first character of their label
+        Node[] children = NO_CHILDREN;
+        // Stored URLs with this canonical form, usually at most one; sorted
+        // so that the choice among them does not depend on insertion order
+        Match[] matches = NO_MATCHES;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        int indexOf(char first) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char c = children[mid].label.charAt(0);
+                if (c < first) {
+                    low = mid + 1;
+                } else if (c > first) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    private static CredentialLookup instance;
+
+    private final File file;
+    private Node root;
+    private int size;
+    // Store file as last seen, to notice changes made outside the plugin
+    private long lastModified;
+    private long length;
+
+    CredentialLookup(File file) {
+        this.file = file;
+    }
+
+    public static synchronized CredentialLookup getInstance() {
+        if (instance == null) {
+            instance = new CredentialLookup(CredentialStore.getStoreFile());
+            CredentialIndex.getInstance().addUrlChangeListener(instance::onUrlsChanged);
+        }
+        return instance;
+    }
+
+    /**
+     * Credentials that apply to {@code url}: those of an equivalent stored
+     * URL, else of the longest stored URL that is a prefix of it at a path
+     * boundary.
+     *
+     * @return the match, or {@code null} if no stored URL applies
+     */
+    public synchronized Match resolve(String url) {
+        ensureCurrent();
+        String key = UrlCanonicalizer.canonicalize(url);
+        String user = UrlCanonicalizer.userOf(url);
+        Node node = root;
+        int position = 0;
+        Match best = null;
+        while (true) {
+            if (node.matches.length > 0 && (position == key.length() || isBoundary(key.charAt(position)))) {
+                best = choose(node.matches, position == key.length() ? url : null, user);
+            }
+            if (position == key.length()) {
+                return best;
+            }
+            int index = node.indexOf(key.charAt(position));
+            if (index < 0) {
+                return best;
+            }
+            Node child = node.children[index];
+            if (!key.startsWith(child.label, position)) {
+                return best;
+            }
+            position += child.label.length();
+            node = child;
+        }
+    }
+
+    /**
+     * The stored spelling equal to {@code url}, else the first for the same
+     * user (or for none, if the URL names none), else the first.
+     */
+    private static Match choose(Match[] matches, String url, String user) {
+        if (matches.length == 1) {
+            return matches[0];
+        }
+        for (Match match : matches) {
+            if (match.url.equals(url)) {
+                return match;
+            }
+        }
+        for (Match match : matches) {
+            if (Objects.equals(UrlCanonicalizer.userOf(match.url), user)) {
+                return match;
+            }
+        }
+        return matches[0];
+    }
+
+    /**
+     * Number of stored URLs.
+     */
+    public synchronized int size() {
+        ensureCurrent();
+        return size;
+    }
+
+    private static boolean isBoundary(char c) {
+        return c == '/' || c == '?' || c == '#';
+    }
+
+    private void ensureCurrent() {
+        if (root == null || file.lastModified() != lastModified || file.length() != length) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        CredentialIndex.Snapshot snapshot = CredentialIndex.getInstance().snapshot();
+        root = new Node("");
+        size = 0;
+        for (String url : snapshot.getUrls()) {
+            insert(new Match(url, snapshot.get(url)));
+        }
+        lastModified = snapshot.getLastModified();
+        length = snapshot.getLength();
+    }
+
+    private synchronized void onUrlsChanged(Map<String, CredentialIndex.Entry> changed) {
+        if (root == null) {
+            // Built on first use
+            return;
+        }
+        if (changed == null) {
+            root = null;
+            return;
+        }
+        for (Map.Entry<String, CredentialIndex.Entry> change : changed.entrySet()) {
+            remove(change.getKey());
+            if (change.getValue() != null) {
+                insert(new Match(change.getKey(), change.getValue()));
+            }
+        }
+        // The commit has just written the file; a write by someone else in
+        // between would go unnoticed until the next one
+        lastModified = file.lastModified();
+        length = file.length();
+    }
+
+    private void insert(Match match) {
+        String key = UrlCanonicalizer.canonicalize(match.url);
+        Node node = root;
+        int position = 0;
+        while (position < key.length()) {
+            int index = node.indexOf(key.charAt(position));
+            if (index < 0) {
+                Node leaf = new Node(key.substring(position));
+                leaf.matches = new Match[] { match };
+                node.children = insertAt(node.children, -(index + 1), leaf);
+                size++;
+                return;
+            }
+            Node child = node.children[index];
+            int common = 1;
+            while (common < child.label.length() && position + common < key.length()
+                    && child.label.charAt(common) == key.charAt(position + common)) {
+                common++;
+            }
+            if (common < child.label.length()) {
+                // Split the edge where the key leaves it
+                Node middle = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                middle.children = new Node[] { child };
+                node.children[index] = middle;
+                child = middle;
+            }
+            node = child;
+            position += common;
+        }
+        for (int i = 0; i < node.matches.length; i++) {
+            if (node.matches[i].url.equals(match.url)) {
+                node.matches[i] = match;
+                return;
+            }
+        }
+        int at = 0;
+        while (at < node.matches.length && node.matches[at].url.compareTo(match.url) < 0) {
+            at++;
+        }
+        Match[] matches = new Match[node.matches.length + 1];
+        System.arraycopy(node.matches, 0, matches, 0, at);
+        matches[at] = match;
+        System.arraycopy(node.matches, at, matches, at + 1, node.matches.length - at);
+        node.matches = matches;
+        size++;
+    }
+
+    private void remove(String url) {
+        String key = UrlCanonicalizer.canonicalize(url);
+        Node parent = null;
+        Node node = root;
+        int position = 0;
+        while (position < key.length()) {
+            int index = node.indexOf(key.charAt(position));
+            if (index < 0 || !key.startsWith(node.children[index].label, position)) {
+                return;
+            }
+            parent = node;
+            node = node.children[index];
+            position += node.label.length();
+        }
+
+        int found = -1;
+        for (int i = 0; i < node.matches.length; i++) {
+            if (node.matches[i].url.equals(url)) {
+                found = i;
+            }
+        }
+        if (found < 0) {
+            return;
+        }
+        Match[] matches = new Match[node.matches.length - 1];
+        System.arraycopy(node.matches, 0, matches, 0, found);
+        System.arraycopy(node.matches, found + 1, matches, found, matches.length - found);
+        node.matches = matches;
+        size--;
+
+        // Drop the node if it is now empty, or merge it into a single child
+        if (parent == null || matches.length > 0) {
+            return;
+        }
+        if (node.children.length == 0) {
+            int index = parent.indexOf(node.label.charAt(0));
+            parent.children = removeAt(parent.children, index);
+            if (parent != root && parent.matches.length == 0 && parent.children.length == 1) {
+                mergeWithChild(parent);
+            }
+        } else if (node.children.length == 1) {
+            mergeWithChild(node);
+        }
+    }
+
+    private static void mergeWithChild(Node node) {
+        Node child = node.children[0];
+        node.label += child.label;
+        node.children = child.children;
+        node.matches = child.matches;
+    }
+
+    private static Node[] insertAt(Node[] nodes, int index, Node node) {
+        Node[] result = new Node[nodes.length + 1];
+        System.arraycopy(nodes, 0, result, 0, index);
+        result[index] = node;
+        System.arraycopy(nodes, index, result, index + 1, nodes.length - index);
+        return result;
+    }
+
+    private static Node[] removeAt(Node[] nodes, int index) {
+        Node[] result = new Node[nodes.length - 1];
+        System.arraycopy(nodes, 0, result, 0, index);
+        System.arraycopy(nodes, index + 1, result, index, result.length - index);
+        return result;
+    }
+}
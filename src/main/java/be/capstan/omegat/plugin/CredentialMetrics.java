@@ -0,0 +1,218 @@
+package be.capstan.omegat.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the plugin's operations, exposed over
+ * JMX so they can be watched with JConsole or any JMX client.
+ * <p>
+ * Call sites take {@code System.nanoTime()} before the operation and pass it
+ * to {@link #record(Operation, long, int)} once it has completed.
+ */
+public class CredentialMetrics implements CredentialMetricsMXBean {
+    public static final String OBJECT_NAME = "be.capstan.omegat.plugin:type=CredentialMetrics";
+
+    public enum Operation {
+        IMPORT_PARSE(true),
+        STORE_COMMIT(false),
+        EXPORT(true),
+        DELETE(true),
+        REFRESH(false),
+        DIALOG_OPEN(false),
+        VERIFY(false);
+
+        /** Whether the entries of this operation count as processed credentials. */
+        private final boolean processesEntries;
+
+        Operation(boolean processesEntries) {
+            this.processesEntries = processesEntries;
+        }
+    }
+
+    /**
+     * Statistics of one operation, with latencies in milliseconds.
+     */
+    public static final class OperationStats {
+        private final long count;
+        private final long entries;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        OperationStats(long count, long entries, double meanMillis, double p50Millis,
+                double p99Millis, double maxMillis) {
+            this.count = count;
+            this.entries = entries;
+            this.meanMillis = meanMillis;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    private static final CredentialMetrics instance = new CredentialMetrics();
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> entries = new EnumMap<>(Operation.class);
+
+    private CredentialMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            entries.put(operation, new AtomicLong());
+        }
+    }
+
+    public static CredentialMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record one completed operation.
+     *
+     * @param startNanos {@code System.nanoTime()} taken when it started
+     * @param entryCount number of credentials it handled
+     */
+    public static void record(Operation operation, long startNanos, int entryCount) {
+        instance.latencies.get(operation).record(System.nanoTime() - startNanos);
+        instance.entries.get(operation).addAndGet(entryCount);
+    }
+
+    /**
+     * Register the MBean with the platform MBean server; failures are only
+     * logged, the plugin works without it.
+     */
+    public static synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(instance, name);
+            }
+        } catch (JMException | SecurityException ex) {
+            System.err.println("Import/Export Credentials plugin: Could not register metrics MBean: "
+                    + ex.getMessage());
+        }
+    }
+
+    public static synchronized void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException | SecurityException ex) {
+            System.err.println("Import/Export Credentials plugin: Could not unregister metrics MBean: "
+                    + ex.getMessage());
+        }
+    }
+
+    public OperationStats getStats(Operation operation) {
+        LatencyHistogram histogram = latencies.get(operation);
+        long count = histogram.getCount();
+        return new OperationStats(count, entries.get(operation).get(),
+                count == 0 ? 0 : toMillis(histogram.getTotalNanos()) / count,
+                toMillis(histogram.getPercentileNanos(50)),
+                toMillis(histogram.getPercentileNanos(99)),
+                toMillis(histogram.getMaxNanos()));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    @Override
+    public OperationStats getImportParse() {
+        return getStats(Operation.IMPORT_PARSE);
+    }
+
+    @Override
+    public OperationStats getStoreCommit() {
+        return getStats(Operation.STORE_COMMIT);
+    }
+
+    @Override
+    public OperationStats getExport() {
+        return getStats(Operation.EXPORT);
+    }
+
+    @Override
+    public OperationStats getDelete() {
+        return getStats(Operation.DELETE);
+    }
+
+    @Override
+    public OperationStats getRefresh() {
+        return getStats(Operation.REFRESH);
+    }
+
+    @Override
+    public OperationStats getDialogOpen() {
+        return getStats(Operation.DIALOG_OPEN);
+    }
+
+    @Override
+    public OperationStats getVerify() {
+        return getStats(Operation.VERIFY);
+    }
+
+    @Override
+    public long getEntriesProcessed() {
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            if (operation.processesEntries) {
+                total += entries.get(operation).get();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int getStoreSize() {
+        return CredentialIndex.getInstance().snapshot().size();
+    }
+
+    @Override
+    public long getStoreFileBytes() {
+        return CredentialStore.getStoreFile().length();
+    }
+
+    @Override
+    public void reset() {
+        for (Operation operation : Operation.values()) {
+            latencies.get(operation).reset();
+            entries.get(operation).set(0);
+        }
+    }
+}
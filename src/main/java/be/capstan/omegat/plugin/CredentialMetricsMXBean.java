@@ -0,0 +1,43 @@
+package be.capstan.omegat.plugin;
+
+/**
+ * Management interface of {@link CredentialMetrics}, registered as
+ * {@value CredentialMetrics#OBJECT_NAME}.
+ */
+public interface CredentialMetricsMXBean {
+
+    CredentialMetrics.OperationStats getImportParse();
+
+    CredentialMetrics.OperationStats getStoreCommit();
+
+    CredentialMetrics.OperationStats getExport();
+
+    CredentialMetrics.OperationStats getDelete();
+
+    CredentialMetrics.OperationStats getRefresh();
+
+    CredentialMetrics.OperationStats getDialogOpen();
+
+    /**
+     * Checks of single credentials against their remote.
+     */
+    CredentialMetrics.OperationStats getVerify();
+
+    /**
+     * Credentials imported, exported or deleted since startup or the last
+     * reset.
+     */
+    long getEntriesProcessed();
+
+    /**
+     * Number of URLs with credentials in the store.
+     */
+    int getStoreSize();
+
+    /**
+     * Size of repositories.properties in bytes.
+     */
+    long getStoreFileBytes();
+
+    void reset();
+}
@@ -0,0 +1,428 @@
+package be.capstan.omegat.plugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary snapshot of credentials, for loading a whole store quickly
+ * and for looking up single URLs without decoding the rest.
+ * <p>
+ * Layout: {@link #MAGIC} and a version byte; entries sorted by the UTF-8 bytes
+ * of their URL, in blocks of {@link #BLOCK_SIZE}; an index of block offsets;
+ * and a fixed-size trailer with the entry and block counts, the index offset,
+ * the length and CRC32C of the {@code .properties} file the snapshot was
+ * built from (0 if none), the CRC32C of everything before it, and the magic
+ * again. Within a block the first URL
+ * is stored whole and each following one as the length of the prefix it
+ * shares with the previous URL plus the remaining bytes. Lengths are unsigned
+ * LEB128 varints; a value is stored as its length + 1, or 0 for none.
+ * <p>
+ * Whole-file reads ({@link #read} and {@link #forEach}) verify the checksum;
+ * single lookups only check that offsets stay in bounds. Readers use absolute
+ * positions only, so one instance can serve concurrent lookups.
+ */
+final class CredentialSnapshotFile {
+    static final byte[] MAGIC = { 'O', 'T', 'C', 'S' };
+    private static final int VERSION = 1;
+    static final int BLOCK_SIZE = 16;
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final int TRAILER_LENGTH = 4 + 4 + 8 + 8 + 8 + 8 + MAGIC.length;
+    private static final String DAMAGED = "Damaged credentials snapshot";
+
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final int blockCount;
+    private final int indexOffset;
+    private final long sourceLength;
+    private final long sourceCrc;
+    private final long checksum;
+
+    private CredentialSnapshotFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int size = buffer.limit();
+        if (size < HEADER_LENGTH + TRAILER_LENGTH || !hasMagic(buffer, 0) || !hasMagic(buffer, size - MAGIC.length)) {
+            throw new IOException("Not a credentials snapshot");
+        }
+        if (buffer.get(MAGIC.length) != VERSION) {
+            throw new IOException("Unsupported credentials snapshot version " + buffer.get(MAGIC.length));
+        }
+        int trailer = size - TRAILER_LENGTH;
+        entryCount = buffer.getInt(trailer);
+        blockCount = buffer.getInt(trailer + 4);
+        long index = buffer.getLong(trailer + 8);
+        sourceLength = buffer.getLong(trailer + 16);
+        sourceCrc = buffer.getLong(trailer + 24);
+        checksum = buffer.getLong(trailer + 32);
+        if (entryCount < 0 || blockCount != (entryCount + BLOCK_SIZE - 1) / BLOCK_SIZE
+                || index < HEADER_LENGTH || index + 8L * blockCount != trailer) {
+            throw new IOException(DAMAGED);
+        }
+        indexOffset = (int) index;
+    }
+
+    /**
+     * Map a snapshot file into memory.
+     */
+    static CredentialSnapshotFile map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Credentials snapshot too large: " + path);
+            }
+            return new CredentialSnapshotFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Read a snapshot file onto the heap, for files that may be replaced
+     * while in use (a mapped file cannot be replaced on Windows).
+     */
+    static CredentialSnapshotFile read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Credentials snapshot too large: " + path);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+            CredentialSnapshotFile snapshot = new CredentialSnapshotFile(buffer);
+            snapshot.verify();
+            return snapshot;
+        }
+    }
+
+    private void verify() throws IOException {
+        ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(buffer.limit() - 8 - MAGIC.length);
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        if (crc.getValue() != checksum) {
+            throw new IOException(DAMAGED);
+        }
+    }
+
+    /**
+     * Whether the file starts with the snapshot magic bytes.
+     */
+    static boolean isSnapshot(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] start = new byte[MAGIC.length];
+            return in.read(start) == MAGIC.length && Arrays.equals(start, MAGIC);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(offset + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return entryCount;
+    }
+
+    long getSourceLength() {
+        return sourceLength;
+    }
+
+    long getSourceCrc() {
+        return sourceCrc;
+    }
+
+    /**
+     * Credentials of one URL, or {@code null} if it is not in the snapshot.
+     * Only the block that may hold the URL is decoded.
+     */
+    CredentialIndex.Entry get(String url) throws IOException {
+        byte[] key = url.getBytes(StandardCharsets.UTF_8);
+
+        // Last block whose first URL is <= key
+        int low = 0;
+        int high = blockCount - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareFirstKey(blockOffset(mid), key);
+            if (cmp <= 0) {
+                block = mid;
+                if (cmp == 0) {
+                    break;
+                }
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+
+        Cursor cursor = new Cursor(blockOffset(block));
+        int end = Math.min(BLOCK_SIZE, entryCount - block * BLOCK_SIZE);
+        for (int i = 0; i < end; i++) {
+            cursor.nextKey();
+            int cmp = Arrays.compareUnsigned(cursor.key, 0, cursor.keyLength, key, 0, key.length);
+            if (cmp == 0) {
+                return new CredentialIndex.Entry(cursor.nextValue(), cursor.nextValue());
+            }
+            if (cmp > 0) {
+                return null;
+            }
+            cursor.skipValue();
+            cursor.skipValue();
+        }
+        return null;
+    }
+
+    /**
+     * Hand every entry to the handler, in snapshot order.
+     */
+    void forEach(CredentialFileParser.Handler handler) throws IOException {
+        verify();
+        Cursor cursor = new Cursor(HEADER_LENGTH);
+        for (int i = 0; i < entryCount; i++) {
+            cursor.nextKey();
+            String url = new String(cursor.key, 0, cursor.keyLength, StandardCharsets.UTF_8);
+            handler.onCredentials(url, cursor.nextValue(), cursor.nextValue());
+        }
+    }
+
+    private int blockOffset(int block) throws IOException {
+        long offset = buffer.getLong(indexOffset + 8 * block);
+        if (offset < HEADER_LENGTH || offset >= indexOffset) {
+            throw new IOException(DAMAGED);
+        }
+        return (int) offset;
+    }
+
+    private int compareFirstKey(int offset, byte[] key) throws IOException {
+        Cursor cursor = new Cursor(offset);
+        if (cursor.readVarint() != 0) {
+            throw new IOException(DAMAGED);
+        }
+        int length = cursor.readVarint();
+        byte[] first = cursor.readBytes(length);
+        return Arrays.compareUnsigned(first, key);
+    }
+
+    /**
+     * Sequential decoder from an absolute position, rebuilding front-coded
+     * URLs in a scratch array.
+     */
+    private final class Cursor {
+        private final ByteBuffer view = buffer.duplicate();
+        int position;
+        byte[] key = new byte[256];
+        int keyLength;
+
+        Cursor(int position) {
+            this.position = position;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position >= indexOffset) {
+                    throw new IOException(DAMAGED);
+                }
+                byte b = buffer.get(position++);
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    if (value < 0) {
+                        break;
+                    }
+                    return value;
+                }
+            }
+            throw new IOException(DAMAGED);
+        }
+
+        void nextKey() throws IOException {
+            int shared = readVarint();
+            int suffix = readVarint();
+            if (shared > keyLength || suffix > indexOffset - position) {
+                throw new IOException(DAMAGED);
+            }
+            if (shared + suffix > key.length) {
+                key = Arrays.copyOf(key, Math.max(shared + suffix, key.length * 2));
+            }
+            view.position(position);
+            view.get(key, shared, suffix);
+            position += suffix;
+            keyLength = shared + suffix;
+        }
+
+        String nextValue() throws IOException {
+            int length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            return new String(readBytes(length - 1), StandardCharsets.UTF_8);
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            if (length > indexOffset - position) {
+                throw new IOException(DAMAGED);
+            }
+            byte[] bytes = new byte[length];
+            view.position(position);
+            view.get(bytes);
+            position += length;
+            return bytes;
+        }
+
+        void skipValue() throws IOException {
+            int length = readVarint();
+            if (length - 1 > indexOffset - position) {
+                throw new IOException(DAMAGED);
+            }
+            if (length > 0) {
+                position += length - 1;
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of the given URLs; URLs the lookup does not know are
+     * left out.
+     *
+     * @param sourceLength length of the {@code .properties} file the entries
+     *        were read from, or 0
+     * @param sourceCrc CRC32C of that file, or 0
+     * @return the number of entries written
+     */
+    static int write(OutputStream out, Iterable<String> urls,
+            Function<String, CredentialIndex.Entry> lookup, long sourceLength, long sourceCrc)
+            throws IOException {
+        List<KeyedEntry> sorted = new ArrayList<>();
+        for (String url : urls) {
+            CredentialIndex.Entry entry = lookup.apply(url);
+            if (entry != null) {
+                sorted.add(new KeyedEntry(url.getBytes(StandardCharsets.UTF_8), entry));
+            }
+        }
+        sorted.sort((a, b) -> Arrays.compareUnsigned(a.key, b.key));
+        List<KeyedEntry> unique = new ArrayList<>(sorted.size());
+        for (KeyedEntry entry : sorted) {
+            if (unique.isEmpty() || !Arrays.equals(unique.get(unique.size() - 1).key, entry.key)) {
+                unique.add(entry);
+            }
+        }
+
+        Encoder encoder = new Encoder(out);
+        encoder.write(MAGIC, 0, MAGIC.length);
+        encoder.write(VERSION);
+
+        long[] blockOffsets = new long[(unique.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        byte[] previous = null;
+        for (int i = 0; i < unique.size(); i++) {
+            byte[] key = unique.get(i).key;
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockOffsets[i / BLOCK_SIZE] = encoder.position;
+            } else {
+                int max = Math.min(previous.length, key.length);
+                while (shared < max && previous[shared] == key[shared]) {
+                    shared++;
+                }
+            }
+            encoder.writeVarint(shared);
+            encoder.writeVarint(key.length - shared);
+            encoder.write(key, shared, key.length - shared);
+            CredentialIndex.Entry entry = unique.get(i).entry;
+            encoder.writeValue(entry.getUsername());
+            encoder.writeValue(entry.getPassword());
+            previous = key;
+        }
+
+        long indexOffset = encoder.position;
+        for (long offset : blockOffsets) {
+            encoder.writeLong(offset);
+        }
+        encoder.writeInt(unique.size());
+        encoder.writeInt(blockOffsets.length);
+        encoder.writeLong(indexOffset);
+        encoder.writeLong(sourceLength);
+        encoder.writeLong(sourceCrc);
+        encoder.writeLong(encoder.crc.getValue());
+        encoder.write(MAGIC, 0, MAGIC.length);
+        encoder.flush();
+        return unique.size();
+    }
+
+    private static final class KeyedEntry {
+        final byte[] key;
+        final CredentialIndex.Entry entry;
+
+        KeyedEntry(byte[] key, CredentialIndex.Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    private static final class Encoder {
+        private final DataOutputStream out;
+        final CRC32C crc = new CRC32C();
+        long position;
+
+        Encoder(OutputStream out) {
+            this.out = new DataOutputStream(new CheckedOutputStream(out, crc));
+        }
+
+        void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            position += length;
+        }
+
+        void writeVarint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeValue(String value) throws IOException {
+            if (value == null) {
+                writeVarint(0);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes.length + 1);
+                write(bytes, 0, bytes.length);
+            }
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+            position += 4;
+        }
+
+        void writeLong(long value) throws IOException {
+            out.writeLong(value);
+            position += 8;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
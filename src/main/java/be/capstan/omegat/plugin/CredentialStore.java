@@ -0,0 +1,234 @@
+package be.capstan.omegat.plugin;
+
+import org.omegat.core.team2.TeamSettings;
+import org.omegat.util.StaticUtils;
+import java.io.*;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * Batched access to the OmegaT repository credentials store
+ * (repositories.properties in the configuration folder).
+ * <p>
+ * {@link TeamSettings#set(String, String)} reloads and rewrites the whole file
+ * on every call. A {@link Batch} collects all changes of an operation and
+ * persists them with a single rewrite, falling back to per-key
+ * {@code TeamSettings.set} calls if the batch cannot be applied.
+ */
+public class CredentialStore {
+    static final String USERNAME_SUFFIX = "!username";
+    static final String PASSWORD_SUFFIX = "!password";
+
+    private static final String STORE_FILE_NAME = "repositories.properties";
+
+    private CredentialStore() {
+    }
+
+    static File getStoreFile() {
+        return new File(StaticUtils.getConfigDir(), STORE_FILE_NAME);
+    }
+
+    /**
+     * Read the whole store the same way TeamSettings does.
+     */
+    static Properties load(File file) throws IOException {
+        Properties props = new Properties();
+        load(file, props);
+        return props;
+    }
+
+    private static void load(File file, Properties props) throws IOException {
+        if (file.exists()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                props.load(in);
+            }
+        }
+    }
+
+    /**
+     * URL of a store key, or {@code null} if it is not a credentials key.
+     */
+    static String urlOf(String key) {
+        return key.endsWith(USERNAME_SUFFIX)
+                ? key.substring(0, key.length() - USERNAME_SUFFIX.length())
+                : key.endsWith(PASSWORD_SUFFIX)
+                ? key.substring(0, key.length() - PASSWORD_SUFFIX.length()) : null;
+    }
+
+    public static Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Pending changes to the store. A {@code null} value removes the key.
+     */
+    public static class Batch {
+        private final Map<String, String> changes = new LinkedHashMap<>();
+        // Journaled operation this batch reverts, 0 if none
+        private long undoes;
+
+        public void set(String key, String value) {
+            changes.put(key, value);
+        }
+
+        public void setCredentials(String url, String username, String password) {
+            if (username != null) {
+                set(url + USERNAME_SUFFIX, username);
+            }
+            if (password != null) {
+                set(url + PASSWORD_SUFFIX, password);
+            }
+        }
+
+        public void removeCredentials(String url) {
+            set(url + USERNAME_SUFFIX, null);
+            set(url + PASSWORD_SUFFIX, null);
+        }
+
+        /**
+         * Pending value of a key; {@code null} if it is removed or not part of
+         * the batch.
+         */
+        public String get(String key) {
+            return changes.get(key);
+        }
+
+        public int size() {
+            return changes.size();
+        }
+
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+
+        /**
+         * Persist all pending changes with one rewrite of the store. If that
+         * fails, every change is applied through TeamSettings instead.
+         *
+         * @return a batch restoring the previous values of the changed keys
+         */
+        public Batch commit() {
+            return commit(null);
+        }
+
+        /**
+         * Commit, and record the change in the {@link CredentialJournal} so
+         * that it can be undone from the Manage Credentials dialog.
+         * Committing the returned batch counts as undoing it.
+         *
+         * @param kind what the operation was, or {@code null} not to
+         *        journal it
+         */
+        public Batch commit(CredentialJournal.Kind kind) {
+            Batch undo = new Batch();
+            if (changes.isEmpty()) {
+                return undo;
+            }
+            long start = System.nanoTime();
+            CredentialEvents.StoreCommit event = new CredentialEvents.StoreCommit();
+            event.begin();
+            // New credentials of the changed URLs; stays null if the commit fails
+            Map<String, CredentialIndex.Entry> changedUrls = null;
+            // TeamSettings methods are static synchronized, so holding the class
+            // lock keeps them from interleaving with our read-modify-write.
+            try {
+                synchronized (TeamSettings.class) {
+                    try {
+                        Properties props = new Properties();
+                        event.bytesWritten = writeAtomically(getStoreFile(), undo, props);
+                        changedUrls = changedUrls(props::getProperty);
+                    } catch (IOException | RuntimeException ex) {
+                        System.err.println("Import/Export Credentials plugin: Batch commit failed, "
+                                + "falling back to per-key writes: " + ex.getMessage());
+                        undo.changes.clear();
+                        event.fallback = true;
+                        for (Map.Entry<String, String> change : changes.entrySet()) {
+                            undo.set(change.getKey(), TeamSettings.get(change.getKey()));
+                            TeamSettings.set(change.getKey(), change.getValue());
+                        }
+                        changedUrls = changedUrls(TeamSettings::get);
+                    }
+                    // Inside the lock, so that the journal is in commit order
+                    if (kind != null) {
+                        undo.undoes = CredentialJournal.getInstance().record(kind, undo.changes, changes);
+                    }
+                    if (undoes != 0) {
+                        CredentialJournal.getInstance().markUndone(undoes);
+                        undoes = 0;
+                    }
+                }
+            } finally {
+                CredentialIndex.getInstance().invalidate(changedUrls);
+            }
+            CredentialMetrics.record(CredentialMetrics.Operation.STORE_COMMIT, start, changes.size());
+            if (event.shouldCommit()) {
+                event.entries = changes.size();
+                event.finish();
+            }
+            changes.clear();
+            return undo;
+        }
+
+        /**
+         * Credentials of every URL with a changed key, as now stored.
+         */
+        private Map<String, CredentialIndex.Entry> changedUrls(
+                Function<String, String> store) {
+            Map<String, CredentialIndex.Entry> changed = new HashMap<>();
+            for (String key : changes.keySet()) {
+                String url = urlOf(key);
+                if (url != null && !changed.containsKey(url)) {
+                    String username = store.apply(url + USERNAME_SUFFIX);
+                    String password = store.apply(url + PASSWORD_SUFFIX);
+                    changed.put(url, username != null || password != null
+                            ? new CredentialIndex.Entry(username, password) : null);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * @param props receives the store content as written
+         * @return the number of bytes written
+         */
+        private long writeAtomically(File file, Batch undo, Properties props) throws IOException {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory " + dir);
+            }
+
+            load(file, props);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                Object previous;
+                if (change.getValue() != null) {
+                    previous = props.setProperty(change.getKey(), change.getValue());
+                } else {
+                    previous = props.remove(change.getKey());
+                }
+                undo.changes.put(change.getKey(), (String) previous);
+            }
+
+            Path target = file.toPath();
+            Path tmp = Files.createTempFile(dir.toPath(), STORE_FILE_NAME, ".new");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                    props.store(out, null);
+                }
+                long bytesWritten = Files.size(tmp);
+                try {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return bytesWritten;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package be.capstan.omegat.plugin;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks stored credentials against their remotes over HTTP(S), many at once.
+ * <p>
+ * For each URL the Git smart-HTTP endpoint ({@code info/refs}) is requested
+ * with the credentials as Basic authentication; if the server does not know
+ * it, the URL itself is requested, which covers Subversion and plain HTTP
+ * repositories. Success means accepted, 401 or 403 means rejected. Other
+ * schemes (SSH, scp-style Git URLs) cannot be checked this way.
+ * <p>
+ * Requests run on a bounded pool, with at most {@code perHost} of them
+ * against the same host at a time so that a large batch does not look like
+ * an attack to one server. The pool threads share one queue of pending URLs
+ * and each takes the next URL whose host is below that cap, so a slow host
+ * occupies at most {@code perHost} threads while the others keep checking
+ * the remaining hosts. Redirects are not followed, so credentials are only
+ * ever sent to the URL stored with them.
+ */
+class CredentialVerifier {
+    static final int DEFAULT_THREADS = 32;
+    static final int DEFAULT_PER_HOST = 4;
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    enum Status {
+        /** The remote accepted the credentials. */
+        VALID,
+        /** The remote refused them (HTTP 401 or 403). */
+        REJECTED,
+        /** The remote has no repository at this URL. */
+        NOT_FOUND,
+        /** No answer could be had: timeout, network error, unexpected reply. */
+        FAILED,
+        /** The URL or stored credentials cannot be checked over HTTP. */
+        UNSUPPORTED
+    }
+
+    static final class Result {
+        private final Status status;
+        private final String detail;
+        private final CredentialIndex.Entry checked;
+
+        Result(Status status, String detail, CredentialIndex.Entry checked) {
+            this.status = status;
+            this.detail = detail;
+            this.checked = checked;
+        }
+
+        Status getStatus() {
+            return status;
+        }
+
+        /**
+         * HTTP status or error message, or {@code null}.
+         */
+        String getDetail() {
+            return detail;
+        }
+
+        /**
+         * Whether this result was obtained with the given credentials, i.e.
+         * still applies to them.
+         */
+        boolean isFor(CredentialIndex.Entry entry) {
+            return entry != null && Objects.equals(entry.getUsername(), checked.getUsername())
+                    && Objects.equals(entry.getPassword(), checked.getPassword());
+        }
+    }
+
+    /**
+     * Receives each result as soon as it is known, from the pool threads.
+     */
+    interface Listener {
+        void onResult(String url, Result result);
+    }
+
+    private final HttpClient client;
+    private final int threads;
+    private final int perHost;
+    private final Duration timeout;
+    private volatile boolean cancelled;
+    private volatile ExecutorService pool;
+    private volatile WorkQueue queue;
+
+    CredentialVerifier() {
+        this(DEFAULT_THREADS, DEFAULT_PER_HOST, DEFAULT_TIMEOUT);
+    }
+
+    CredentialVerifier(int threads, int perHost, Duration timeout) {
+        this.threads = threads;
+        this.perHost = perHost;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * Check all given credentials and return once every result has been
+     * reported, or after {@link #cancel}; URLs not reached by then get no
+     * result.
+     */
+    void verify(Map<String, CredentialIndex.Entry> credentials, Listener listener) throws InterruptedException {
+        WorkQueue work = new WorkQueue();
+        for (String url : credentials.keySet()) {
+            String host = hostKey(url);
+            if (host == null) {
+                listener.onResult(url, new Result(Status.UNSUPPORTED, null, credentials.get(url)));
+            } else {
+                work.add(host, url);
+            }
+        }
+        if (work.size == 0) {
+            return;
+        }
+
+        int workers = Math.min(threads, work.size);
+        ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "Credentials verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool = executor;
+        queue = work;
+        try {
+            // One task per thread, so none waits in the executor queue
+            for (int i = 0; i < workers && !cancelled; i++) {
+                try {
+                    executor.execute(() -> {
+                        String[] next;
+                        while ((next = work.take()) != null) {
+                            try {
+                                Result result = verify(next[1], credentials.get(next[1]));
+                                if (!cancelled) {
+                                    listener.onResult(next[1], result);
+                                }
+                            } finally {
+                                work.done(next[0]);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    // Cancelled while starting the workers
+                    break;
+                }
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting; requests time out on their own
+            }
+        } finally {
+            executor.shutdownNow();
+            pool = null;
+            queue = null;
+        }
+    }
+
+    /**
+     * Pending URLs by host, and the number of checks running against each.
+     */
+    private final class WorkQueue {
+        private final Map<String, ArrayDeque<String>> pending = new LinkedHashMap<>();
+        private final Map<String, Integer> running = new HashMap<>();
+        int size;
+
+        void add(String host, String url) {
+            pending.computeIfAbsent(host, k -> new ArrayDeque<>()).add(url);
+            size++;
+        }
+
+        /**
+         * Host and URL of the next check allowed to start, waiting while
+         * every host with pending URLs is at its cap.
+         *
+         * @return {@code null} once all are taken, or after cancelling
+         */
+        synchronized String[] take() {
+            while (!cancelled && !pending.isEmpty()) {
+                Iterator<Map.Entry<String, ArrayDeque<String>>> hosts = pending.entrySet().iterator();
+                while (hosts.hasNext()) {
+                    Map.Entry<String, ArrayDeque<String>> host = hosts.next();
+                    int count = running.getOrDefault(host.getKey(), 0);
+                    if (count < perHost) {
+                        String url = host.getValue().poll();
+                        // Round robin: the host goes to the back, if it has more
+                        hosts.remove();
+                        if (!host.getValue().isEmpty()) {
+                            pending.put(host.getKey(), host.getValue());
+                        }
+                        running.put(host.getKey(), count + 1);
+                        return new String[] { host.getKey(), url };
+                    }
+                }
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        synchronized void done(String host) {
+            running.merge(host, -1, Integer::sum);
+            notifyAll();
+        }
+
+        synchronized void wakeAll() {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop starting new checks and abort those in progress.
+     */
+    void cancel() {
+        cancelled = true;
+        ExecutorService executor = pool;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        WorkQueue work = queue;
+        if (work != null) {
+            work.wakeAll();
+        }
+    }
+
+    /**
+     * Check the credentials of one URL.
+     */
+    Result verify(String url, CredentialIndex.Entry entry) {
+        long start = System.nanoTime();
+        try {
+            if (hostKey(url) == null) {
+                return new Result(Status.UNSUPPORTED, null, entry);
+            }
+            if (entry.getUsername() == null || entry.getPassword() == null) {
+                return new Result(Status.UNSUPPORTED, "incomplete", entry);
+            }
+            String authorization;
+            try {
+                authorization = basicAuthorization(entry.getUsername(), entry.getPassword());
+            } catch (IllegalArgumentException ex) {
+                return new Result(Status.UNSUPPORTED, "password is not Base64", entry);
+            }
+
+            String base = url.endsWith("/") ? url : url + "/";
+            Result result = request(base + "info/refs?service=git-upload-pack", authorization, entry);
+            if (result.status == Status.NOT_FOUND) {
+                result = request(url, authorization, entry);
+            }
+            return result;
+        } finally {
+            CredentialMetrics.record(CredentialMetrics.Operation.VERIFY, start, 1);
+        }
+    }
+
+    private Result request(String url, String authorization, CredentialIndex.Entry entry) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(timeout)
+                    .header("Authorization", authorization)
+                    .header("User-Agent", "git/2 (OmegaT credentials check)")
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException ex) {
+            return new Result(Status.UNSUPPORTED, ex.getMessage(), entry);
+        }
+        try {
+            int code = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            String detail = "HTTP " + code;
+            if (code >= 200 && code < 300) {
+                return new Result(Status.VALID, detail, entry);
+            } else if (code == 401 || code == 403) {
+                return new Result(Status.REJECTED, detail, entry);
+            } else if (code == 404 || code == 410) {
+                return new Result(Status.NOT_FOUND, detail, entry);
+            }
+            return new Result(Status.FAILED, detail, entry);
+        } catch (HttpTimeoutException ex) {
+            return new Result(Status.FAILED, "timed out", entry);
+        } catch (IOException ex) {
+            return new Result(Status.FAILED, ex.getMessage() != null ? ex.getMessage()
+                    : ex.getClass().getSimpleName(), entry);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new Result(Status.FAILED, "cancelled", entry);
+        }
+    }
+
+    /**
+     * Scheme, host and port of an HTTP(S) URL, or {@code null} for anything
+     * that cannot be checked.
+     */
+    static String hostKey(String url) {
+        try {
+            URI uri = new URI(url.strip());
+            String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : "";
+            if (!scheme.equals("http") && !scheme.equals("https") || uri.getHost() == null) {
+                return null;
+            }
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + ":" + uri.getPort();
+        } catch (java.net.URISyntaxException ex) {
+            return null;
+        }
+    }
+
+    private static String basicAuthorization(String username, String base64Password) {
+        byte[] password = Base64.getDecoder().decode(base64Password);
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        byte[] pair = new byte[user.length + 1 + password.length];
+        System.arraycopy(user, 0, pair, 0, user.length);
+        pair[user.length] = ':';
+        System.arraycopy(password, 0, pair, user.length + 1, password.length);
+        try {
+            return "Basic " + Base64.getEncoder().encodeToString(pair);
+        } finally {
+            Arrays.fill(password, (byte) 0);
+            Arrays.fill(pair, (byte) 0);
+        }
+    }
+}
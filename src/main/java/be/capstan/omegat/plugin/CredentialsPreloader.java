@@ -0,0 +1,100 @@
+package be.capstan.omegat.plugin;
+
+import javax.swing.SwingUtilities;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Prepares the store snapshot and a populated {@link CredentialsTableModel}
+ * in the background, so that the Manage Credentials dialog can open without
+ * reading or sorting the store on the EDT.
+ * <p>
+ * One spare model is kept ready. It is brought up to date whenever the
+ * {@link CredentialIndex} is invalidated, and replaced by a fresh one each
+ * time a dialog takes it. If it is not ready yet, the dialog opens with an
+ * empty model that is filled in on the EDT once the spare is done.
+ */
+class CredentialsPreloader {
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Credentials preloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static Future<CredentialsTableModel> spare;
+    private static boolean started;
+
+    private CredentialsPreloader() {
+    }
+
+    static synchronized void start() {
+        if (!started) {
+            started = true;
+            CredentialIndex.getInstance().addChangeListener(CredentialsPreloader::refresh);
+            prepare();
+        }
+    }
+
+    /**
+     * Hand out the prepared model, synchronized with the current store, and
+     * start preparing the next one. Never waits for the preparation: if it
+     * is still running, an empty model is returned and filled in later.
+     */
+    static synchronized CredentialsTableModel takeModel() {
+        if (spare != null && spare.isDone()) {
+            CredentialsTableModel model = null;
+            try {
+                model = spare.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                System.err.println("Import/Export Credentials plugin: Error preloading credentials: "
+                        + ex.getCause().getMessage());
+            }
+            if (model != null) {
+                // No-op unless the file changed behind our back since the last refresh
+                model.setUrls(CredentialIndex.getInstance().getUrls());
+                prepare();
+                return model;
+            }
+        }
+
+        // The model being prepared, or a new one, goes to this dialog once done
+        Future<CredentialsTableModel> pending = spare != null && !spare.isDone() ? spare
+                : executor.submit(() -> new CredentialsTableModel(CredentialIndex.getInstance().getUrls()));
+        CredentialsTableModel loading = new CredentialsTableModel(Collections.emptyList());
+        executor.submit(() -> {
+            try {
+                CredentialsTableModel prepared = pending.get();
+                prepared.setUrls(CredentialIndex.getInstance().getUrls());
+                SwingUtilities.invokeLater(() -> loading.fill(prepared));
+            } catch (ExecutionException ex) {
+                System.err.println("Import/Export Credentials plugin: Error preloading credentials: "
+                        + ex.getCause().getMessage());
+            }
+            return null;
+        });
+        prepare();
+        return loading;
+    }
+
+    private static synchronized void prepare() {
+        spare = executor.submit(() -> new CredentialsTableModel(CredentialIndex.getInstance().getUrls()));
+    }
+
+    private static synchronized void refresh() {
+        if (spare == null) {
+            return;
+        }
+        // Runs after the task producing the current spare on the same thread
+        Future<CredentialsTableModel> previous = spare;
+        spare = executor.submit(() -> {
+            CredentialsTableModel model = previous.get();
+            model.setUrls(CredentialIndex.getInstance().getUrls());
+            return model;
+        });
+    }
+}
@@ -0,0 +1,503 @@
+package be.capstan.omegat.plugin;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+
+/**
+ * Table model of the credentials dialog: a checkbox column, a URL column and
+ * the result of the last verification of each URL's credentials.
+ * <p>
+ * Rows are kept in ascending order of their pre-parsed {@link UrlSortKey}
+ * (scheme, host, port, path), compared the way {@link UrlCanonicalizer} does
+ * so that equivalent spellings of a URL end up next to each other. The view
+ * shows them in either direction by mapping view rows onto model rows, so
+ * flipping the sort order never re-parses URLs or copies lists. A filter narrows the view to the model rows
+ * found by a {@link UrlTrigramIndex}; selection actions then only apply to
+ * those rows.
+ */
+class CredentialsTableModel extends AbstractTableModel {
+    private static final ResourceBundle res = ResourceBundle.getBundle(
+            "ImportExportCredentials", Locale.getDefault());
+
+    // Beyond this many changed runs, the rest of the table is replaced at once
+    private static final int MAX_INCREMENTAL_RUNS = 64;
+
+    private final String[] COLUMN_NAMES;
+    private final Class<?>[] COLUMN_CLASSES = { Boolean.class, String.class, String.class };
+
+    private final List<UrlSortKey> rows = new ArrayList<>();
+    // Checkbox state by model row, with its cardinality kept up to date
+    private final BitSet checked = new BitSet();
+    private int checkedCount;
+    // Parsed keys of the current rows, so a refresh only parses new URLs
+    private final Map<String, UrlSortKey> sortKeys = new HashMap<>();
+    private boolean ascending = true;
+    // List the rows were last synchronized with; snapshot lists are immutable
+    private List<String> source;
+
+    // Ascending model rows matching filterText, or null when unfiltered
+    private int[] visible;
+    private String filterText = "";
+    private UrlTrigramIndex filterIndex;
+    private boolean rowsChanged;
+    // Verification results by URL, kept while the credentials are unchanged
+    private final Map<String, CredentialVerifier.Result> verification = new HashMap<>();
+
+    CredentialsTableModel(List<String> urls) {
+        COLUMN_NAMES = new String[] {
+            res.getString("icp.main.table.checkLabel"),
+            res.getString("icp.main.table.urlLabel"),
+            res.getString("icp.main.table.verifyLabel")
+        };
+        setUrls(urls);
+    }
+
+    /**
+     * Sort key of a URL, split into its components once.
+     */
+    static final class UrlSortKey {
+        static final Comparator<UrlSortKey> ORDER = (a, b) -> {
+            int cmp = a.scheme.compareTo(b.scheme);
+            if (cmp == 0) {
+                cmp = a.host.compareTo(b.host);
+            }
+            if (cmp == 0) {
+                cmp = Integer.compare(a.port, b.port);
+            }
+            if (cmp == 0) {
+                cmp = a.path.compareTo(b.path);
+            }
+            if (cmp == 0) {
+                cmp = a.url.compareTo(b.url);
+            }
+            return cmp;
+        };
+
+        final String url;
+        final String scheme;
+        final String host;
+        final int port;
+        final String path;
+
+        UrlSortKey(String url) {
+            this.url = url;
+            int schemeEnd = url.indexOf("://");
+            if (schemeEnd < 0) {
+                // Not a hierarchical URL (e.g. scp-style git@host:repo): sort as a path
+                scheme = "";
+                host = "";
+                port = -1;
+                path = url;
+                return;
+            }
+            scheme = url.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+
+            int authStart = schemeEnd + 3;
+            int authEnd = authStart;
+            while (authEnd < url.length() && "/?#".indexOf(url.charAt(authEnd)) < 0) {
+                authEnd++;
+            }
+            int hostStart = url.lastIndexOf('@', authEnd - 1) + 1;
+            if (hostStart < authStart) {
+                hostStart = authStart;
+            }
+            int portSep = url.lastIndexOf(':', authEnd - 1);
+            int parsedPort = -1;
+            // A colon inside an IPv6 literal is not a port separator
+            if (portSep >= hostStart && url.lastIndexOf(']', authEnd - 1) < portSep) {
+                try {
+                    parsedPort = Integer.parseInt(url.substring(portSep + 1, authEnd));
+                } catch (NumberFormatException e) {
+                    parsedPort = -1;
+                }
+            } else {
+                portSep = authEnd;
+            }
+            host = url.substring(hostStart, portSep).toLowerCase(Locale.ROOT);
+            // An explicit default port sorts like no port
+            port = Integer.toString(parsedPort).equals(UrlCanonicalizer.defaultPort(scheme)) ? -1 : parsedPort;
+            path = UrlCanonicalizer.normalizePath(url.substring(authEnd));
+        }
+    }
+
+    /**
+     * Take the rows of a model built in the background, if this one is
+     * still empty. The other model must no longer be changed by any thread.
+     */
+    void fill(CredentialsTableModel prepared) {
+        if (!rows.isEmpty() || prepared.rows.isEmpty()) {
+            return;
+        }
+        rows.addAll(prepared.rows);
+        sortKeys.putAll(prepared.sortKeys);
+        source = prepared.source;
+        rowsChanged = true;
+        fireModelRowsInserted(0, rows.size() - 1);
+        afterRowsChanged();
+    }
+
+    /**
+     * Bring the rows in line with the given URLs, firing insert/delete
+     * events only for the rows that changed, so that checkboxes and the
+     * highlighted row of unchanged URLs are kept.
+     */
+    public void setUrls(List<String> newUrls) {
+        if (newUrls == source) {
+            return;
+        }
+        mergeUrls(newUrls);
+        source = newUrls;
+        afterRowsChanged();
+    }
+
+    private void mergeUrls(List<String> newUrls) {
+        List<UrlSortKey> target = new ArrayList<>(newUrls.size());
+        for (String url : newUrls) {
+            target.add(sortKeys.computeIfAbsent(url, UrlSortKey::new));
+        }
+        target.sort(UrlSortKey.ORDER);
+
+        int runs = 0;
+        int i = 0;
+        int j = 0;
+        while (i < rows.size() || j < target.size()) {
+            int cmp = i >= rows.size() ? 1
+                    : j >= target.size() ? -1
+                    : UrlSortKey.ORDER.compare(rows.get(i), target.get(j));
+            if (cmp == 0) {
+                i++;
+                j++;
+                continue;
+            }
+            if (++runs > MAX_INCREMENTAL_RUNS) {
+                replaceTail(i, target.subList(j, target.size()));
+                return;
+            }
+            if (cmp < 0) {
+                // rows[i..end) are gone
+                int end = i + 1;
+                while (end < rows.size() && (j >= target.size()
+                        || UrlSortKey.ORDER.compare(rows.get(end), target.get(j)) < 0)) {
+                    end++;
+                }
+                removeRows(i, end);
+            } else {
+                // target[j..end) are new and go before rows[i]
+                int end = j + 1;
+                while (end < target.size() && (i >= rows.size()
+                        || UrlSortKey.ORDER.compare(rows.get(i), target.get(end)) > 0)) {
+                    end++;
+                }
+                int count = end - j;
+                shiftChecked(i, count, rows.size());
+                rows.addAll(i, target.subList(j, end));
+                rowsChanged = true;
+                fireModelRowsInserted(i, i + count - 1);
+                i += count;
+                j = end;
+            }
+        }
+    }
+
+    private void replaceTail(int from, List<UrlSortKey> tail) {
+        Set<UrlSortKey> kept = new HashSet<>(tail);
+        Set<UrlSortKey> stillChecked = new HashSet<>();
+        for (int k = from; k < rows.size(); k++) {
+            if (checked.get(k)) {
+                stillChecked.add(rows.get(k));
+            }
+            if (!kept.contains(rows.get(k))) {
+                sortKeys.remove(rows.get(k).url);
+            }
+        }
+        rowsChanged = true;
+        int oldSize = rows.size();
+        if (from < oldSize) {
+            rows.subList(from, oldSize).clear();
+            checkedCount -= checked.get(from, oldSize).cardinality();
+            checked.clear(from, oldSize);
+            fireModelRowsDeleted(from, oldSize - 1, oldSize);
+        }
+        if (!tail.isEmpty()) {
+            rows.addAll(tail);
+            for (int k = from; k < rows.size(); k++) {
+                if (stillChecked.contains(rows.get(k))) {
+                    checked.set(k);
+                    checkedCount++;
+                }
+            }
+            fireModelRowsInserted(from, rows.size() - 1);
+        }
+    }
+
+    /**
+     * Remove model rows {@code [start, end)}.
+     */
+    private void removeRows(int start, int end) {
+        int oldSize = rows.size();
+        List<UrlSortKey> removed = rows.subList(start, end);
+        for (UrlSortKey key : removed) {
+            sortKeys.remove(key.url);
+        }
+        removed.clear();
+        rowsChanged = true;
+        checkedCount -= checked.get(start, end).cardinality();
+        shiftChecked(end, start - end, oldSize);
+        fireModelRowsDeleted(start, end - 1, oldSize);
+    }
+
+    /**
+     * Move the checkbox bits of model rows {@code [from, size)} by
+     * {@code delta} positions; rows moved over are overwritten, a gap opened
+     * by a positive delta is left unchecked.
+     */
+    private void shiftChecked(int from, int delta, int size) {
+        BitSet tail = checked.get(from, size);
+        checked.clear(Math.min(from, from + delta), size);
+        for (int bit = tail.nextSetBit(0); bit >= 0; bit = tail.nextSetBit(bit + 1)) {
+            checked.set(from + delta + bit);
+        }
+    }
+
+    /**
+     * Show only URLs containing the given text, ignoring case; an empty text
+     * shows all rows.
+     */
+    void setFilter(String text) {
+        String query = text.strip();
+        if (query.equals(filterText)) {
+            return;
+        }
+        if (query.isEmpty()) {
+            visible = null;
+        } else if (visible != null && query.toLowerCase(Locale.ROOT)
+                .contains(filterText.toLowerCase(Locale.ROOT))) {
+            // The query only grew: narrow the current result
+            visible = filterIndex.refine(visible, query);
+        } else {
+            visible = getFilterIndex().search(query);
+        }
+        filterText = query;
+        fireTableDataChanged();
+    }
+
+    private UrlTrigramIndex getFilterIndex() {
+        if (filterIndex == null) {
+            filterIndex = new UrlTrigramIndex(new AbstractList<String>() {
+                @Override public String get(int index) { return rows.get(index).url; }
+                @Override public int size() { return rows.size(); }
+            });
+        }
+        return filterIndex;
+    }
+
+    /**
+     * Row events are only fired while unfiltered; a filtered view is
+     * recomputed once the change is complete.
+     */
+    private void afterRowsChanged() {
+        if (!rowsChanged) {
+            return;
+        }
+        rowsChanged = false;
+        filterIndex = null;
+        if (visible != null) {
+            visible = getFilterIndex().search(filterText);
+            fireTableDataChanged();
+        }
+    }
+
+    /**
+     * View row of a URL, or -1.
+     */
+    int indexOf(String url) {
+        UrlSortKey key = sortKeys.get(url);
+        if (key == null) {
+            return -1;
+        }
+        int idx = Collections.binarySearch(rows, key, UrlSortKey.ORDER);
+        return idx >= 0 ? toView(idx) : -1;
+    }
+
+    private int toModel(int viewRow) {
+        int pos = ascending ? viewRow : getRowCount() - 1 - viewRow;
+        return visible != null ? visible[pos] : pos;
+    }
+
+    private int toView(int modelRow) {
+        int pos = modelRow;
+        if (visible != null) {
+            pos = Arrays.binarySearch(visible, modelRow);
+            if (pos < 0) {
+                return -1;
+            }
+        }
+        return ascending ? pos : getRowCount() - 1 - pos;
+    }
+
+    private void fireModelRowsDeleted(int first, int last, int sizeBefore) {
+        if (visible != null) {
+            return;
+        }
+        if (ascending) {
+            fireTableRowsDeleted(first, last);
+        } else {
+            fireTableRowsDeleted(sizeBefore - 1 - last, sizeBefore - 1 - first);
+        }
+    }
+
+    private void fireModelRowsInserted(int first, int last) {
+        if (visible != null) {
+            return;
+        }
+        fireTableRowsInserted(Math.min(toView(first), toView(last)),
+                Math.max(toView(first), toView(last)));
+    }
+
+    @Override public int getRowCount() { return visible != null ? visible.length : rows.size(); }
+    @Override public int getColumnCount() { return COLUMN_NAMES.length; }
+    @Override public String getColumnName(int col) { return COLUMN_NAMES[col]; }
+    @Override public Class<?> getColumnClass(int col) { return COLUMN_CLASSES[col]; }
+    @Override public Object getValueAt(int row, int col) {
+        int modelRow = toModel(row);
+        if (col == 0) return Boolean.valueOf(checked.get(modelRow));
+        if (col == 2) return formatResult(verification.get(rows.get(modelRow).url));
+        return rows.get(modelRow).url;
+    }
+
+    private static String formatResult(CredentialVerifier.Result result) {
+        if (result == null) {
+            return "";
+        }
+        String label = res.getString("icp.verify." + result.getStatus().name().toLowerCase(Locale.ROOT));
+        return result.getDetail() != null ? label + " (" + result.getDetail() + ")" : label;
+    }
+
+    /**
+     * Show the verification result of a URL.
+     */
+    void setVerification(String url, CredentialVerifier.Result result) {
+        verification.put(url, result);
+        int row = indexOf(url);
+        if (row >= 0) {
+            fireTableCellUpdated(row, 2);
+        }
+    }
+
+    /**
+     * Drop the results of URLs whose credentials are gone or were changed
+     * since they were checked.
+     */
+    void retainVerification(CredentialIndex.Snapshot store) {
+        if (verification.isEmpty()) {
+            return;
+        }
+        boolean removed = verification.entrySet().removeIf(e -> !e.getValue().isFor(store.get(e.getKey())));
+        if (removed && getRowCount() > 0) {
+            fireTableRowsUpdated(0, getRowCount() - 1);
+        }
+    }
+    @Override public boolean isCellEditable(int row, int col) {
+        return col == 0;
+    }
+    @Override public void setValueAt(Object value, int row, int col) {
+        if (col == 0) {
+            int modelRow = toModel(row);
+            boolean select = (Boolean) value;
+            if (checked.get(modelRow) != select) {
+                checked.set(modelRow, select);
+                checkedCount += select ? 1 : -1;
+            }
+            fireTableCellUpdated(row, col);
+        }
+    }
+
+    /**
+     * Check or uncheck all rows of the current view.
+     */
+    void selectAll(boolean select) {
+        if (visible != null) {
+            for (int row : visible) {
+                if (checked.get(row) != select) {
+                    checked.set(row, select);
+                    checkedCount += select ? 1 : -1;
+                }
+            }
+        } else if (select) {
+            checked.set(0, rows.size());
+            checkedCount = rows.size();
+        } else {
+            checked.clear();
+            checkedCount = 0;
+        }
+        fireTableRowsUpdated(0, getRowCount() - 1);
+    }
+
+    /**
+     * Number of checked rows in the current view.
+     */
+    int getCheckedCount() {
+        if (visible == null) {
+            return checkedCount;
+        }
+        int count = 0;
+        for (int row : visible) {
+            if (checked.get(row)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * URLs of the checked rows of the current view, in view order.
+     */
+    List<String> getCheckedUrls() {
+        List<String> urls = new ArrayList<>();
+        if (visible != null) {
+            for (int row : visible) {
+                if (checked.get(row)) {
+                    urls.add(rows.get(row).url);
+                }
+            }
+        } else {
+            for (int row = checked.nextSetBit(0); row >= 0; row = checked.nextSetBit(row + 1)) {
+                urls.add(rows.get(row).url);
+            }
+        }
+        if (!ascending) {
+            Collections.reverse(urls);
+        }
+        return urls;
+    }
+
+    /**
+     * Drop the rows of the given URLs, firing one event per contiguous run.
+     */
+    void removeUrls(Set<String> removed) {
+        for (int end = rows.size() - 1; end >= 0; end--) {
+            if (!removed.contains(rows.get(end).url)) {
+                continue;
+            }
+            int start = end;
+            while (start > 0 && removed.contains(rows.get(start - 1).url)) {
+                start--;
+            }
+            removeRows(start, end + 1);
+            end = start;
+        }
+        source = null;
+        afterRowsChanged();
+    }
+
+    boolean isAnyRowUnselected() {
+        return getCheckedCount() < getRowCount();
+    }
+
+    void sortByUrl(boolean ascending) {
+        if (this.ascending != ascending) {
+            this.ascending = ascending;
+            fireTableDataChanged();
+        }
+    }
+}
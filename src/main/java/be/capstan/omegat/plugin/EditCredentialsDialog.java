@@ -1,12 +1,10 @@
 package be.capstan.omegat.plugin;
 
-import org.omegat.core.team2.TeamSettings;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.ResourceBundle;
 
@@ -121,8 +119,12 @@ public class EditCredentialsDialog extends JDialog {
 
     private void loadCredentials(String url) {
         try {
-            String username = TeamSettings.get(url + "!username");
-            String passwordB64 = TeamSettings.get(url + "!password");
+            CredentialIndex.Entry entry = CredentialIndex.getInstance().get(url);
+            if (entry == null) {
+                return;
+            }
+            String username = entry.getUsername();
+            String passwordB64 = entry.getPassword();
 
             if (username != null) {
                 usernameField.setText(username);
@@ -130,11 +132,12 @@ public class EditCredentialsDialog extends JDialog {
 
             if (passwordB64 != null) {
                 try {
-                    String decoded = new String(
-                            Base64.getDecoder().decode(passwordB64),
-                            StandardCharsets.UTF_8
-                    );
-                    passwordField.setText(decoded);
+                    char[] decoded = Secrets.decode(passwordB64);
+                    try {
+                        setPassword(decoded);
+                    } finally {
+                        Arrays.fill(decoded, '\0');
+                    }
                     // Show password by default
                     passwordField.setEchoChar((char) 0);
                     toggleButton.setText(res.getString("icp.edit.toggleButton.hide"));
@@ -147,6 +150,18 @@ public class EditCredentialsDialog extends JDialog {
         }
     }
 
+    /**
+     * Put the password in the field one character at a time, as a document
+     * only accepts strings and a single one would hold all of it.
+     */
+    private void setPassword(char[] password) throws javax.swing.text.BadLocationException {
+        javax.swing.text.Document document = passwordField.getDocument();
+        document.remove(0, document.getLength());
+        for (int i = 0; i < password.length; i++) {
+            document.insertString(i, String.valueOf(password[i]), null);
+        }
+    }
+
     private void togglePasswordVisibility() {
         if (passwordField.getEchoChar() == 0) {
             char echoChar = (Character) UIManager.getDefaults().get("PasswordField.echoChar");
@@ -168,16 +183,28 @@ public class EditCredentialsDialog extends JDialog {
 
         String urlText = urlField.getText();
         String username = usernameField.getText();
-        String password = new String(passwordField.getPassword());
+        // Never turned into a String; cleared whatever happens below
+        char[] password = passwordField.getPassword();
+        try {
+            save(urlText, username, password);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private void save(String urlText, String username, char[] password) {
+        int passwordStart = 0;
+        int passwordEnd = password.length;
 
         boolean strip = stripSpacesCheck.isSelected();
         if (strip) {
             urlText = trimWhitespace(urlText);
             username = trimWhitespace(username);
-            password = trimWhitespace(password);
+            passwordStart = Secrets.stripStart(password);
+            passwordEnd = Secrets.stripEnd(password, passwordStart);
         }
 
-        if (isEmpty(urlText) || isEmpty(username) || isEmpty(password)) {
+        if (isEmpty(urlText) || isEmpty(username) || passwordStart == passwordEnd) {
             statusLabel.setText(res.getString("icp.edit.statusEmpty"));
             return;
         }
@@ -203,23 +230,42 @@ public class EditCredentialsDialog extends JDialog {
             if (choice != JOptionPane.YES_OPTION) {
                 return;
             }
-        } else if (strip && (username.isEmpty() || password.isEmpty())) {
+        } else if (strip && (username.isEmpty() || passwordStart == passwordEnd)) {
             statusLabel.setText(res.getString("icp.edit.statusEmptyWarning"));
             return;
         }
 
-        String base64Password = Base64.getEncoder()
-                .encodeToString(password.getBytes(StandardCharsets.UTF_8));
+        // Another entry stored under an equivalent spelling of the new URL
+        String duplicateUrl = null;
+        if (!UrlCanonicalizer.isEquivalent(originalUrl, urlText)) {
+            duplicateUrl = CredentialIndex.getInstance().snapshot().findEquivalent(urlText);
+            if (duplicateUrl != null) {
+                int choice = JOptionPane.showConfirmDialog(
+                        this,
+                        res.getString("icp.edit.urlExists").replace("{URL}", duplicateUrl),
+                        res.getString("icp.edit.urlExistsTitle"),
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.WARNING_MESSAGE
+                );
+                if (choice != JOptionPane.YES_OPTION) {
+                    return;
+                }
+            }
+        }
+
+        String base64Password = Secrets.encode(password, passwordStart, passwordEnd);
 
         try {
+            CredentialStore.Batch batch = CredentialStore.newBatch();
             // If URL changed, delete old entry
             if (!originalUrl.equals(urlText)) {
-                TeamSettings.set(originalUrl + "!username", null);
-                TeamSettings.set(originalUrl + "!password", null);
+                batch.removeCredentials(originalUrl);
             }
-
-            TeamSettings.set(urlText + "!username", username);
-            TeamSettings.set(urlText + "!password", base64Password);
+            if (duplicateUrl != null && !duplicateUrl.equals(urlText)) {
+                batch.removeCredentials(duplicateUrl);
+            }
+            batch.setCredentials(urlText, username, base64Password);
+            batch.commit(CredentialJournal.Kind.EDIT);
 
             JOptionPane.showMessageDialog(
                     this,
@@ -255,6 +301,15 @@ public class EditCredentialsDialog extends JDialog {
         return s != null && s.trim().isEmpty();
     }
 
+    private boolean isAllWhitespace(char[] s) {
+        for (char c : s) {
+            if (c > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private String trimWhitespace(String s) {
         return s == null ? null : s.strip();
     }
@@ -0,0 +1,297 @@
+package be.capstan.omegat.plugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Passphrase-encrypted credential bundles, written and read in one pass with
+ * constant memory.
+ * <p>
+ * Layout: a header ({@link #MAGIC}, version, PBKDF2 iteration count, salt,
+ * nonce prefix, chunk size) followed by chunks of at most
+ * {@link #CHUNK_SIZE} plaintext bytes, each stored as a final-chunk flag, the
+ * ciphertext length and the AES-256-GCM ciphertext with its tag. The nonce
+ * of a chunk is the nonce prefix followed by the chunk number, and the
+ * header and flag are authenticated with every chunk, so modified, reordered,
+ * truncated or appended chunks all fail to decrypt. A chunk's plaintext is
+ * only released once its tag has been verified.
+ */
+final class EncryptedBundle {
+    static final byte[] MAGIC = { 'O', 'T', 'C', 'E' };
+    private static final int VERSION = 1;
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_LENGTH = TAG_BITS / 8;
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    private static final int ITERATIONS = 600_000;
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final int KEY_BITS = 256;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + SALT_LENGTH + NONCE_PREFIX_LENGTH + 4;
+
+    private static final String DAMAGED = "The encrypted bundle is damaged, or the passphrase is wrong";
+
+    private EncryptedBundle() {
+    }
+
+    /**
+     * Stream encrypting everything written to it into {@code out}. Closing it
+     * writes the final chunk and closes {@code out}. The passphrase is not
+     * kept.
+     */
+    static OutputStream encrypt(OutputStream out, char[] passphrase) throws IOException {
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        random.nextBytes(salt);
+        random.nextBytes(noncePrefix);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC).put((byte) VERSION).putInt(ITERATIONS).put(salt).put(noncePrefix).putInt(CHUNK_SIZE);
+        byte[] headerBytes = header.array();
+
+        SecretKey key = deriveKey(passphrase, salt, ITERATIONS);
+        out.write(headerBytes);
+        return new EncryptingStream(out, key, headerBytes, noncePrefix);
+    }
+
+    /**
+     * Stream of the decrypted content of a bundle whose header starts at the
+     * current position of {@code in}. The passphrase is not kept.
+     *
+     * @throws IOException if the header is invalid; a wrong passphrase or
+     *         damaged content fails on the first chunk read
+     */
+    static InputStream decrypt(InputStream in, char[] passphrase) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] headerBytes = new byte[HEADER_LENGTH];
+        try {
+            data.readFully(headerBytes);
+        } catch (EOFException ex) {
+            throw new IOException(DAMAGED, ex);
+        }
+        ByteBuffer header = ByteBuffer.wrap(headerBytes);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an encrypted credentials bundle");
+        }
+        int version = header.get() & 0xff;
+        if (version != VERSION) {
+            throw new IOException("Unsupported encrypted bundle version " + version);
+        }
+        int iterations = header.getInt();
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        header.get(salt).get(noncePrefix);
+        int chunkSize = header.getInt();
+        if (iterations <= 0 || iterations > MAX_ITERATIONS || chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException(DAMAGED);
+        }
+
+        SecretKey key = deriveKey(passphrase, salt, iterations);
+        return new DecryptingStream(data, key, headerBytes, noncePrefix, chunkSize);
+    }
+
+    private static SecretKey deriveKey(char[] passphrase, byte[] salt, int iterations) throws IOException {
+        PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, KEY_BITS);
+        try {
+            byte[] keyBytes = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            try {
+                return new SecretKeySpec(keyBytes, "AES");
+            } finally {
+                Arrays.fill(keyBytes, (byte) 0);
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Cannot derive the bundle key: " + ex.getMessage(), ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static Cipher newCipher(int mode, SecretKey key, byte[] noncePrefix, long chunk,
+            byte[] headerBytes, boolean last) throws GeneralSecurityException, IOException {
+        if (chunk > 0xffffffffL) {
+            throw new IOException("Encrypted bundle too large");
+        }
+        byte[] nonce = ByteBuffer.allocate(NONCE_PREFIX_LENGTH + 4)
+                .put(noncePrefix).putInt((int) chunk).array();
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(headerBytes);
+        cipher.updateAAD(new byte[] { (byte) (last ? 1 : 0) });
+        return cipher;
+    }
+
+    private static final class EncryptingStream extends OutputStream {
+        private final DataOutputStream out;
+        private final SecretKey key;
+        private final byte[] headerBytes;
+        private final byte[] noncePrefix;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int length;
+        private long chunk;
+        private boolean closed;
+
+        EncryptingStream(OutputStream out, SecretKey key, byte[] headerBytes, byte[] noncePrefix) {
+            this.out = new DataOutputStream(out);
+            this.key = key;
+            this.headerBytes = headerBytes;
+            this.noncePrefix = noncePrefix;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == CHUNK_SIZE) {
+                writeChunk(false);
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                // A full chunk is only written once more data follows, so the last one can be flagged
+                if (length == CHUNK_SIZE) {
+                    writeChunk(false);
+                }
+                int n = Math.min(len, CHUNK_SIZE - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeChunk(boolean last) throws IOException {
+            byte[] ciphertext;
+            try {
+                ciphertext = newCipher(Cipher.ENCRYPT_MODE, key, noncePrefix, chunk++, headerBytes, last)
+                        .doFinal(buffer, 0, length);
+            } catch (GeneralSecurityException ex) {
+                throw new IOException("Cannot encrypt the bundle: " + ex.getMessage(), ex);
+            }
+            out.writeByte(last ? 1 : 0);
+            out.writeInt(ciphertext.length);
+            out.write(ciphertext);
+            Arrays.fill(buffer, 0, length, (byte) 0);
+            length = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    writeChunk(true);
+                } finally {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    private static final class DecryptingStream extends InputStream {
+        private final DataInputStream in;
+        private final SecretKey key;
+        private final byte[] headerBytes;
+        private final byte[] noncePrefix;
+        private final int chunkSize;
+        private byte[] plaintext = new byte[0];
+        private int position;
+        private long chunk;
+        private boolean lastRead;
+
+        DecryptingStream(DataInputStream in, SecretKey key, byte[] headerBytes, byte[] noncePrefix,
+                int chunkSize) {
+            this.in = in;
+            this.key = key;
+            this.headerBytes = headerBytes;
+            this.noncePrefix = noncePrefix;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Decrypt the next chunk; {@code false} at the end of the bundle.
+         */
+        private boolean nextChunk() throws IOException {
+            while (position == plaintext.length) {
+                if (lastRead) {
+                    return false;
+                }
+                int flag;
+                int length;
+                byte[] ciphertext;
+                try {
+                    flag = in.readUnsignedByte();
+                    length = in.readInt();
+                    if (flag > 1 || length < TAG_LENGTH || length > chunkSize + TAG_LENGTH) {
+                        throw new IOException(DAMAGED);
+                    }
+                    ciphertext = new byte[length];
+                    in.readFully(ciphertext);
+                } catch (EOFException ex) {
+                    // Cut off before the final chunk
+                    throw new IOException(DAMAGED, ex);
+                }
+
+                Arrays.fill(plaintext, (byte) 0);
+                try {
+                    plaintext = newCipher(Cipher.DECRYPT_MODE, key, noncePrefix, chunk++, headerBytes, flag == 1)
+                            .doFinal(ciphertext);
+                } catch (GeneralSecurityException ex) {
+                    throw new IOException(DAMAGED, ex);
+                }
+                position = 0;
+                if (flag == 1) {
+                    lastRead = true;
+                    if (in.read() >= 0) {
+                        throw new IOException(DAMAGED);
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextChunk() ? plaintext[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, plaintext.length - position);
+            System.arraycopy(plaintext, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(plaintext, (byte) 0);
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package be.capstan.omegat.plugin;
+
+import org.omegat.util.StaticUtils;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Applies credential imports, deletes and exports without any UI, for
+ * provisioning workstations.
+ * <p>
+ * The plan is read from {@code credentials-provisioning.properties} in the
+ * OmegaT configuration folder, and/or from system properties
+ * {@code credentials.import}, {@code credentials.delete} and
+ * {@code credentials.export}, which override the file:
+ * <ul>
+ * <li>{@code import}: credential files, or folders of {@code .properties}
+ * files, to import, separated by the platform path separator. Files are
+ * read in parallel; a URL found in several files gets the values of the
+ * last one in alphabetical order of their paths</li>
+ * <li>{@code delete}: comma-separated URLs to delete, or {@code @file} with
+ * one URL per line</li>
+ * <li>{@code export}: file to export the whole store to, after the import
+ * and delete</li>
+ * </ul>
+ * Relative paths are resolved against the configuration folder. Imports and
+ * deletes are committed together in one rewrite of the store. A plan file
+ * that was applied is renamed to {@code .done} so it runs only once.
+ * <p>
+ * The passphrase of encrypted bundles, for import and for an export named
+ * {@code *.enc}, is taken from the {@code credentials.passphrase} system
+ * property or the {@code OMEGAT_CREDENTIALS_PASSPHRASE} environment variable,
+ * never from the plan file, which stays on disk.
+ */
+public class HeadlessProvisioning {
+    static final String PLAN_FILE_NAME = "credentials-provisioning.properties";
+    static final String PROPERTY_PREFIX = "credentials.";
+    static final String KEY_IMPORT = "import";
+    static final String KEY_DELETE = "delete";
+    static final String KEY_EXPORT = "export";
+    static final String PASSPHRASE_PROPERTY = "credentials.passphrase";
+    static final String PASSPHRASE_VARIABLE = "OMEGAT_CREDENTIALS_PASSPHRASE";
+
+    private static final String LOG_PREFIX = "Import/Export Credentials plugin: ";
+
+    private HeadlessProvisioning() {
+    }
+
+    /**
+     * Run the provisioning plan if one was given; does nothing otherwise.
+     */
+    public static synchronized void runIfRequested() {
+        File configDir = new File(StaticUtils.getConfigDir());
+        File planFile = new File(configDir, PLAN_FILE_NAME);
+
+        Properties plan = new Properties();
+        boolean fromFile = planFile.isFile();
+        if (fromFile) {
+            try (Reader reader = new InputStreamReader(
+                    new FileInputStream(planFile), StandardCharsets.UTF_8)) {
+                plan.load(reader);
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println(LOG_PREFIX + "Error reading " + planFile + ": " + ex.getMessage());
+                return;
+            }
+        }
+        for (String key : new String[] { KEY_IMPORT, KEY_DELETE, KEY_EXPORT }) {
+            String value = System.getProperty(PROPERTY_PREFIX + key);
+            if (value != null) {
+                plan.setProperty(key, value);
+            }
+        }
+        if (plan.isEmpty()) {
+            return;
+        }
+
+        try {
+            run(plan, configDir);
+        } catch (Exception ex) {
+            System.err.println(LOG_PREFIX + "Provisioning failed: " + ex.getMessage());
+            return;
+        }
+
+        if (fromFile) {
+            try {
+                Files.move(planFile.toPath(), new File(configDir, PLAN_FILE_NAME + ".done").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                System.err.println(LOG_PREFIX + "Could not rename " + planFile + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    static void run(Properties plan, File baseDir) throws IOException {
+        long start = System.nanoTime();
+
+        List<File> importPaths = new ArrayList<>();
+        for (String path : split(plan.getProperty(KEY_IMPORT), File.pathSeparator)) {
+            importPaths.add(resolve(baseDir, path));
+        }
+        List<File> importFiles = ParallelFileParser.expand(importPaths);
+        ImportDiff diff = new ParallelFileParser(importFiles, 1, null, source -> {
+            char[] passphrase = getPassphrase();
+            if (passphrase == null) {
+                throw new IOException(source + " is encrypted; set " + PASSPHRASE_PROPERTY
+                        + " or " + PASSPHRASE_VARIABLE);
+            }
+            return passphrase;
+        }).parse();
+        diff.classify(CredentialIndex.getInstance().snapshot());
+        int imported = diff.countWrites(ImportDiff.ConflictPolicy.OVERWRITE);
+        int unchanged = diff.getCount(ImportDiff.Kind.UNCHANGED);
+        CredentialStore.Batch batch = diff.toBatch(ImportDiff.ConflictPolicy.OVERWRITE);
+
+        List<String> deleteUrls = readDeleteList(plan.getProperty(KEY_DELETE), baseDir);
+        for (String url : deleteUrls) {
+            batch.removeCredentials(url);
+        }
+
+        CredentialStore.Batch undo = batch.commit();
+        int deleted = 0;
+        for (String url : deleteUrls) {
+            if (undo.get(url + CredentialStore.USERNAME_SUFFIX) != null
+                    || undo.get(url + CredentialStore.PASSWORD_SUFFIX) != null) {
+                deleted++;
+            }
+        }
+
+        String exportPath = plan.getProperty(KEY_EXPORT, "").trim();
+        int exported = 0;
+        if (!exportPath.isEmpty()) {
+            File exportFile = resolve(baseDir, exportPath);
+            char[] passphrase = getPassphrase();
+            try {
+                exported = CredentialExporter.export(CredentialIndex.getInstance().getUrls(), exportFile,
+                        passphrase);
+            } catch (IOException ex) {
+                // The import and delete are already committed at this point
+                System.err.println(LOG_PREFIX + "Error exporting to " + exportFile + ": " + ex.getMessage());
+            } finally {
+                if (passphrase != null) {
+                    Arrays.fill(passphrase, '\0');
+                }
+            }
+        }
+
+        System.out.println(LOG_PREFIX + "Provisioning done in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms: imported " + imported
+                + " credential(s) from " + importFiles.size() + " file(s), " + unchanged
+                + " unchanged, deleted " + deleted
+                + " of " + deleteUrls.size() + ", exported " + exported
+                + (exportPath.isEmpty() ? "" : " to " + resolve(baseDir, exportPath)));
+    }
+
+    /**
+     * A new copy of the configured passphrase, or {@code null} if there is
+     * none.
+     */
+    private static char[] getPassphrase() {
+        String passphrase = System.getProperty(PASSPHRASE_PROPERTY);
+        if (passphrase == null) {
+            passphrase = System.getenv(PASSPHRASE_VARIABLE);
+        }
+        return passphrase == null || passphrase.isEmpty() ? null : passphrase.toCharArray();
+    }
+
+    private static List<String> readDeleteList(String value, File baseDir) throws IOException {
+        if (value != null && value.trim().startsWith("@")) {
+            File listFile = resolve(baseDir, value.trim().substring(1));
+            List<String> urls = new ArrayList<>();
+            for (String line : Files.readAllLines(listFile.toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    urls.add(line);
+                }
+            }
+            return urls;
+        }
+        return split(value, ",");
+    }
+
+    private static List<String> split(String value, String separator) {
+        List<String> parts = new ArrayList<>();
+        if (value != null) {
+            for (String part : value.split(Pattern.quote(separator))) {
+                if (!part.trim().isEmpty()) {
+                    parts.add(part.trim());
+                }
+            }
+        }
+        return parts;
+    }
+
+    private static File resolve(File baseDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseDir, path);
+    }
+}
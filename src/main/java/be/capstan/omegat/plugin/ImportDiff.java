@@ -0,0 +1,212 @@
+package be.capstan.omegat.plugin;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Comparison of the credentials read from an import file with the store.
+ * <p>
+ * Credentials are collected with {@link #add}, classified against a store
+ * snapshot in one pass by {@link #classify}, and turned into a batch that
+ * only writes the values that actually differ:
+ * <ul>
+ * <li>{@link Kind#NEW}: the URL has no credentials in the store</li>
+ * <li>{@link Kind#CHANGED}: same username (or none stored), but a different
+ * password or a value the store lacks</li>
+ * <li>{@link Kind#UNCHANGED}: every value in the file matches the store</li>
+ * <li>{@link Kind#CONFLICT}: the store holds a different username, so the
+ * {@link ConflictPolicy} decides</li>
+ * </ul>
+ * Each URL in the files is an entry of its own, as OmegaT looks credentials
+ * up by the exact URL. Only the comparison with the store uses the canonical
+ * form (see {@link UrlCanonicalizer}), so {@code https://host/repo.git} in a
+ * file is compared with a stored {@code https://host/repo} unless the store
+ * holds that exact spelling too. Values are always written under the URL as
+ * spelled in the file, complete with the stored values it does not replace
+ * when the store spells it differently; merging such spellings is left to
+ * {@link UrlCanonicalizer.Collapse}.
+ */
+public class ImportDiff {
+
+    public enum Kind {
+        NEW, CHANGED, UNCHANGED, CONFLICT
+    }
+
+    public enum ConflictPolicy {
+        /** Write the values from the file. */
+        OVERWRITE,
+        /** Keep the stored values, only add those the store lacks. */
+        KEEP_EXISTING,
+        /** Leave the URL untouched. */
+        SKIP
+    }
+
+    private static final class Incoming {
+        final String url;
+        String username;
+        String password;
+        Kind kind;
+        String storedUrl;
+        CredentialIndex.Entry stored;
+
+        Incoming(String url) {
+            this.url = url;
+        }
+
+        /**
+         * Whether the store holds this URL under another spelling, so that
+         * writing it creates a new key.
+         */
+        boolean isRespelled() {
+            return storedUrl != null && !storedUrl.equals(url);
+        }
+    }
+
+    // By URL as spelled in the files
+    private final Map<String, Incoming> incoming = new LinkedHashMap<>();
+    private final int[] counts = new int[Kind.values().length];
+
+    /**
+     * Add the credentials of one URL; a later value for the same key wins,
+     * as it would when loading the file as properties.
+     */
+    public void add(String url, String username, String password) {
+        Incoming entry = incoming.computeIfAbsent(url, Incoming::new);
+        if (username != null) {
+            entry.username = username;
+        }
+        if (password != null) {
+            entry.password = password;
+        }
+    }
+
+    /**
+     * Add all credentials of another file read after this one, so that its
+     * values win.
+     *
+     * @return the number of its URLs that were already present
+     */
+    public int addAll(ImportDiff later) {
+        int duplicates = 0;
+        for (Map.Entry<String, Incoming> e : later.incoming.entrySet()) {
+            if (incoming.containsKey(e.getKey())) {
+                duplicates++;
+            }
+            add(e.getValue().url, e.getValue().username, e.getValue().password);
+        }
+        return duplicates;
+    }
+
+    /**
+     * Number of distinct URLs added.
+     */
+    public int size() {
+        return incoming.size();
+    }
+
+    /**
+     * Compare every URL with the given store content.
+     */
+    public void classify(CredentialIndex.Snapshot store) {
+        Arrays.fill(counts, 0);
+        for (Incoming entry : incoming.values()) {
+            entry.storedUrl = store.findEquivalent(entry.url);
+            entry.stored = entry.storedUrl != null ? store.get(entry.storedUrl) : null;
+            entry.kind = classify(entry);
+            counts[entry.kind.ordinal()]++;
+        }
+    }
+
+    private static Kind classify(Incoming entry) {
+        CredentialIndex.Entry stored = entry.stored;
+        if (stored == null) {
+            return Kind.NEW;
+        }
+        if (entry.username != null && stored.getUsername() != null
+                && !entry.username.equals(stored.getUsername())) {
+            return Kind.CONFLICT;
+        }
+        if (differs(entry.username, stored.getUsername()) || differs(entry.password, stored.getPassword())) {
+            return Kind.CHANGED;
+        }
+        return Kind.UNCHANGED;
+    }
+
+    /**
+     * Number of URLs of the given kind, as of the last {@link #classify}.
+     */
+    public int getCount(Kind kind) {
+        return counts[kind.ordinal()];
+    }
+
+    /**
+     * Changes needed to apply the file: new and changed URLs, and the
+     * conflicting ones as the policy says. Values already in the store are
+     * never rewritten.
+     */
+    public CredentialStore.Batch toBatch(ConflictPolicy policy) {
+        CredentialStore.Batch batch = CredentialStore.newBatch();
+        for (Incoming entry : incoming.values()) {
+            String[] values = valuesToWrite(entry, policy);
+            if (values != null) {
+                if (entry.isRespelled()) {
+                    // The new key must carry the values kept from the stored spelling too
+                    values[0] = values[0] != null ? values[0] : entry.stored.getUsername();
+                    values[1] = values[1] != null ? values[1] : entry.stored.getPassword();
+                }
+                batch.setCredentials(entry.url, values[0], values[1]);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Number of URLs {@link #toBatch} would write with the given policy.
+     */
+    public int countWrites(ConflictPolicy policy) {
+        int count = 0;
+        for (Incoming entry : incoming.values()) {
+            if (valuesToWrite(entry, policy) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Username and password to write for one URL, each {@code null} if it
+     * stays as stored; {@code null} if nothing is written at all.
+     */
+    private static String[] valuesToWrite(Incoming entry, ConflictPolicy policy) {
+        String username = entry.stored != null ? entry.stored.getUsername() : null;
+        String password = entry.stored != null ? entry.stored.getPassword() : null;
+        boolean fillOnly;
+        switch (entry.kind) {
+            case NEW:
+            case CHANGED:
+                fillOnly = false;
+                break;
+            case CONFLICT:
+                if (policy == ConflictPolicy.SKIP) {
+                    return null;
+                }
+                fillOnly = policy == ConflictPolicy.KEEP_EXISTING;
+                break;
+            default:
+                return null;
+        }
+        String[] values = {
+                (fillOnly ? username == null : differs(entry.username, username)) ? entry.username : null,
+                (fillOnly ? password == null : differs(entry.password, password)) ? entry.password : null };
+        return values[0] != null || values[1] != null ? values : null;
+    }
+
+    /**
+     * Whether writing {@code value} would change {@code stored}; a missing
+     * value in the file never does.
+     */
+    private static boolean differs(String value, String stored) {
+        return value != null && !value.equals(stored);
+    }
+}
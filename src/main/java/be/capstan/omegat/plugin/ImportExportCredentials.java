@@ -1,6 +1,7 @@
 package be.capstan.omegat.plugin;
 
 import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
 import java.util.*;
 import javax.swing.*;
 
@@ -15,10 +16,22 @@ public class ImportExportCredentials {
     private static JMenuItem manageCredentialsMenuItem;
 
     public static void loadPlugins() {
+        CredentialMetrics.register();
+
+        // Console modes run headless and never fire onApplicationStartup
+        if (GraphicsEnvironment.isHeadless()) {
+            HeadlessProvisioning.runIfRequested();
+        }
+
         CoreEvents.registerApplicationEventListener(new IApplicationEventListener() {
             @Override
             public void onApplicationStartup() {
                 addMenuItems();
+                CredentialsPreloader.start();
+                Thread provisioning = new Thread(HeadlessProvisioning::runIfRequested,
+                        "Credentials provisioning");
+                provisioning.setDaemon(true);
+                provisioning.start();
             }
 
             @Override
@@ -29,7 +42,7 @@ public class ImportExportCredentials {
     }
 
     public static void unloadPlugins() {
-        // Cleanup if needed
+        CredentialMetrics.unregister();
     }
 
     private static void addMenuItems() {
@@ -1,15 +1,16 @@
 package be.capstan.omegat.plugin;
 
-import org.omegat.core.team2.TeamSettings;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Properties;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 public class ImportFromFileDialog {
     private static final ResourceBundle res = ResourceBundle.getBundle(
@@ -19,74 +20,305 @@ public class ImportFromFileDialog {
     public static void showDialog(Component parent, Runnable onSuccess) {
         JFileChooser fileChooser = new JFileChooser(System.getProperty("user.home"));
         fileChooser.setFileFilter(new FileNameExtensionFilter(
-                res.getString("icp.import.fileFilter"), "properties"));
+                res.getString("icp.import.fileFilter"), "properties", "gz", "zip", "enc", "credsnap"));
         fileChooser.setDialogTitle(res.getString("icp.import.dialogTitle"));
+        // Several files and/or folders, whose .properties files are imported together
+        fileChooser.setMultiSelectionEnabled(true);
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 
         int result = fileChooser.showOpenDialog(parent);
 
         if (result == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
-            processFile(parent, selectedFile, onSuccess);
+            List<File> files = ParallelFileParser.expand(Arrays.asList(fileChooser.getSelectedFiles()));
+            if (files.isEmpty()) {
+                JOptionPane.showMessageDialog(parent,
+                        res.getString("icp.import.noFiles"),
+                        res.getString("icp.import.dialogTitle"),
+                        JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            processFiles(parent, files, onSuccess);
         }
         // No else needed - just returns to main dialog
     }
 
-    private static void processFile(Component parent, File file, Runnable onSuccess) {
-        Properties props = new Properties();
-        try (FileInputStream fis = new FileInputStream(file);
-             InputStreamReader reader = new InputStreamReader(fis, "UTF-8")) {
-            props.load(reader);
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(parent,
-                    res.getString("icp.import.readError") + ex.getMessage(),
-                    res.getString("icp.import.errorTitle"),
-                    JOptionPane.ERROR_MESSAGE);
-            return;
-        }
+    private static void processFiles(Component parent, List<File> files, Runnable onSuccess) {
+        ImportWorker worker = new ImportWorker(parent, files, onSuccess);
+        worker.execute();
+        // Modal: returns once the worker has finished and disposed the dialog
+        worker.progress.setVisible(true);
+    }
 
-        Map<String, Map<String, String>> urlCredentials = new HashMap<>();
+    /**
+     * Parses the files off the EDT, in parallel if there are several, and
+     * compares them with the store, then lets the user confirm the changes
+     * in a preview. Cancelling while parsing leaves the store untouched.
+     */
+    private static class ImportWorker extends SwingWorker<ImportDiff, Integer> {
+        private static final int PUBLISH_INTERVAL = 500;
 
-        for (String key : props.stringPropertyNames()) {
-            if (key.endsWith("!username") || key.endsWith("!password")) {
-                int bangIndex = key.lastIndexOf('!');
-                String url = key.substring(0, bangIndex);
-                String subKey = key.substring(bangIndex + 1);
-                String value = props.getProperty(key);
+        private final Component parent;
+        private final List<File> files;
+        private final Runnable onSuccess;
+        private final ProgressDialog progress;
+        private final ParallelFileParser parser;
+        private final long totalLength;
 
-                urlCredentials.computeIfAbsent(url, k -> new HashMap<>()).put(subKey, value);
-            }
+        private volatile boolean cancelled;
+        // Entered once and reused for every encrypted file of this import
+        private char[] passphrase;
+
+        ImportWorker(Component parent, List<File> files, Runnable onSuccess) {
+            this.parent = parent;
+            this.files = files;
+            this.onSuccess = onSuccess;
+            this.totalLength = ParallelFileParser.totalLength(files);
+            this.parser = new ParallelFileParser(files, PUBLISH_INTERVAL, this::publish, this::getPassphrase);
+            // Not SwingWorker.cancel(): done() must only run once parsing has stopped
+            this.progress = new ProgressDialog(parent,
+                    res.getString("icp.import.progressTitle"), parser::cancel);
         }
 
-        int urlCount = 0;
-        try {
-            for (Map.Entry<String, Map<String, String>> entry : urlCredentials.entrySet()) {
-                String url = entry.getKey();
-                Map<String, String> creds = entry.getValue();
+        @Override
+        protected ImportDiff doInBackground() throws Exception {
+            ImportDiff diff;
+            try {
+                diff = parser.parse();
+            } catch (CancellationException ex) {
+                cancelled = true;
+                return null;
+            } finally {
+                clearPassphrase();
+            }
+            diff.classify(CredentialIndex.getInstance().snapshot());
+            return diff;
+        }
 
-                if (creds.containsKey("username")) {
-                    TeamSettings.set(url + "!username", creds.get("username"));
+        /**
+         * Called from the parsing threads; asks on the EDT the first time.
+         */
+        private synchronized char[] getPassphrase(String fileName) throws IOException {
+            if (passphrase == null) {
+                char[][] entered = new char[1][];
+                try {
+                    SwingUtilities.invokeAndWait(() -> entered[0] = PassphrasePrompt.ask(progress, fileName));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                } catch (InvocationTargetException ex) {
+                    throw new IOException(ex.getCause().getMessage(), ex.getCause());
                 }
-                if (creds.containsKey("password")) {
-                    TeamSettings.set(url + "!password", creds.get("password"));
+                if (entered[0] == null) {
+                    parser.cancel();
+                    return null;
                 }
-                urlCount++;
+                passphrase = entered[0];
             }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(parent,
-                    res.getString("icp.import.saveError") + ex.getMessage(),
-                    res.getString("icp.import.errorTitle"),
-                    JOptionPane.ERROR_MESSAGE);
-            return;
+            return passphrase.clone();
+        }
+
+        private synchronized void clearPassphrase() {
+            if (passphrase != null) {
+                Arrays.fill(passphrase, '\0');
+                passphrase = null;
+            }
+        }
+
+        @Override
+        protected void process(List<Integer> chunks) {
+            String count = Integer.toString(chunks.get(chunks.size() - 1));
+            progress.setMessage(res.getString("icp.import.progressReading").replace("{count}", count));
+            progress.setProgress(totalLength > 0 ? (int) (parser.getBytesRead() * 100 / totalLength) : -1);
+        }
+
+        @Override
+        protected void done() {
+            progress.dispose();
+
+            ImportDiff diff;
+            try {
+                diff = get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                JOptionPane.showMessageDialog(parent,
+                        res.getString("icp.import.readError") + ex.getCause().getMessage(),
+                        res.getString("icp.import.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            if (cancelled) {
+                showCancelled(parent);
+                return;
+            }
+
+            if (diff.getCount(ImportDiff.Kind.NEW) + diff.getCount(ImportDiff.Kind.CHANGED)
+                    + diff.getCount(ImportDiff.Kind.CONFLICT) == 0) {
+                JOptionPane.showMessageDialog(parent,
+                        res.getString("icp.import.nothingToImport")
+                                .replace("{count}", Integer.toString(diff.size())),
+                        res.getString("icp.import.dialogTitle"),
+                        JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+
+            ImportDiff.ConflictPolicy policy = showPreview(parent, diff, files.size(),
+                    parser.getDuplicateUrls());
+            if (policy == null) {
+                showCancelled(parent);
+                return;
+            }
+
+            WriteWorker writer = new WriteWorker(parent, diff, policy, onSuccess);
+            writer.execute();
+            writer.progress.setVisible(true);
+        }
+    }
+
+    /**
+     * Shows what the import would change and asks how to handle conflicts.
+     *
+     * @return the chosen conflict policy, or {@code null} if the user cancelled
+     */
+    private static ImportDiff.ConflictPolicy showPreview(Component parent, ImportDiff diff,
+            int fileCount, int duplicateUrls) {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        if (fileCount > 1) {
+            panel.add(new JLabel(res.getString("icp.import.previewFiles")
+                    .replace("{count}", Integer.toString(fileCount))
+                    .replace("{duplicates}", Integer.toString(duplicateUrls))));
+        }
+        panel.add(new JLabel(res.getString("icp.import.previewSummary")
+                .replace("{count}", Integer.toString(diff.size()))));
+        panel.add(Box.createRigidArea(new Dimension(0, 5)));
+        for (ImportDiff.Kind kind : ImportDiff.Kind.values()) {
+            JLabel label = new JLabel(res.getString("icp.import.preview." + kind.name().toLowerCase(Locale.ROOT))
+                    .replace("{count}", Integer.toString(diff.getCount(kind))));
+            label.setBorder(BorderFactory.createEmptyBorder(0, 15, 0, 0));
+            panel.add(label);
+        }
+
+        ButtonGroup group = new ButtonGroup();
+        JRadioButton overwrite = new JRadioButton(res.getString("icp.import.conflictOverwrite"));
+        JRadioButton keep = new JRadioButton(res.getString("icp.import.conflictKeep"), true);
+        JRadioButton skip = new JRadioButton(res.getString("icp.import.conflictSkip"));
+        if (diff.getCount(ImportDiff.Kind.CONFLICT) > 0) {
+            panel.add(Box.createRigidArea(new Dimension(0, 10)));
+            panel.add(new JLabel(res.getString("icp.import.conflictPolicyLabel")));
+            for (JRadioButton button : new JRadioButton[] { overwrite, keep, skip }) {
+                group.add(button);
+                panel.add(button);
+            }
+        }
+
+        Object[] options = {
+                res.getString("icp.import.importButton"),
+                res.getString("icp.import.cancelButton") };
+        int choice = JOptionPane.showOptionDialog(parent, panel,
+                res.getString("icp.import.previewTitle"),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE,
+                null, options, options[0]);
+        if (choice != 0) {
+            return null;
         }
+        if (overwrite.isSelected()) {
+            return ImportDiff.ConflictPolicy.OVERWRITE;
+        }
+        return skip.isSelected() ? ImportDiff.ConflictPolicy.SKIP : ImportDiff.ConflictPolicy.KEEP_EXISTING;
+    }
 
+    private static void showCancelled(Component parent) {
         JOptionPane.showMessageDialog(parent,
-                res.getString("icp.import.successMessage")
-                        .replace("{count}", Integer.toString(urlCount)),
-                res.getString("icp.import.successTitle"),
+                res.getString("icp.import.cancelled"),
+                res.getString("icp.import.dialogTitle"),
                 JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * Commits the confirmed changes off the EDT with a single store rewrite.
+     * Cancelling during the commit restores the previous values afterwards.
+     */
+    private static class WriteWorker extends SwingWorker<Integer, Void> {
+        private final Component parent;
+        private final ImportDiff diff;
+        private final ImportDiff.ConflictPolicy policy;
+        private final Runnable onSuccess;
+        private final ProgressDialog progress;
+
+        private volatile boolean cancelRequested;
+        private volatile boolean cancelled;
+
+        WriteWorker(Component parent, ImportDiff diff, ImportDiff.ConflictPolicy policy, Runnable onSuccess) {
+            this.parent = parent;
+            this.diff = diff;
+            this.policy = policy;
+            this.onSuccess = onSuccess;
+            this.progress = new ProgressDialog(parent,
+                    res.getString("icp.import.progressTitle"), () -> cancelRequested = true);
+            progress.setMessage(res.getString("icp.import.progressWriting")
+                    .replace("{count}", Integer.toString(diff.countWrites(policy))));
+            progress.setProgress(-1);
+        }
 
-        if (onSuccess != null && urlCount > 0) {
-            onSuccess.run();
+        @Override
+        protected Integer doInBackground() {
+            CredentialStore.Batch batch = diff.toBatch(policy);
+            int urlCount = diff.countWrites(policy);
+            CredentialStore.Batch undo = batch.commit(CredentialJournal.Kind.IMPORT);
+            if (cancelRequested) {
+                undo.commit();
+                cancelled = true;
+                return 0;
+            }
+            return urlCount;
+        }
+
+        @Override
+        protected void done() {
+            progress.dispose();
+
+            int urlCount;
+            try {
+                urlCount = get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                JOptionPane.showMessageDialog(parent,
+                        res.getString("icp.import.saveError") + ex.getCause().getMessage(),
+                        res.getString("icp.import.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            if (cancelled) {
+                showCancelled(parent);
+                return;
+            }
+
+            String message = res.getString("icp.import.successMessage")
+                    .replace("{count}", Integer.toString(urlCount));
+            int unchanged = diff.getCount(ImportDiff.Kind.UNCHANGED);
+            if (unchanged > 0) {
+                message += "\n" + res.getString("icp.import.successUnchanged")
+                        .replace("{count}", Integer.toString(unchanged));
+            }
+            int conflicts = diff.getCount(ImportDiff.Kind.CONFLICT);
+            if (conflicts > 0 && policy != ImportDiff.ConflictPolicy.OVERWRITE) {
+                message += "\n" + res.getString("icp.import.successConflictsKept")
+                        .replace("{count}", Integer.toString(conflicts));
+            }
+            JOptionPane.showMessageDialog(parent,
+                    message,
+                    res.getString("icp.import.successTitle"),
+                    JOptionPane.INFORMATION_MESSAGE);
+
+            if (onSuccess != null && urlCount > 0) {
+                onSuccess.run();
+            }
         }
     }
 }
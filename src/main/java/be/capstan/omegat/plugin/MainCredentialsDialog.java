@@ -1,23 +1,24 @@
 package be.capstan.omegat.plugin;
 
-import org.omegat.core.team2.TeamSettings;
 import javax.swing.*;
 import javax.swing.table.*;
 import java.awt.*;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class MainCredentialsDialog extends JDialog {
     private static final ResourceBundle res = ResourceBundle.getBundle("ImportExportCredentials", Locale.getDefault());
 
     private final JTable table;
     private final CredentialsTableModel tableModel;
+    private final JLabel selectionLabel;
     private boolean ascendingSort = true;
 
     public MainCredentialsDialog(Frame owner) {
         super(owner, res.getString("icp.main.dialog.title"), true);
+        long openStart = System.nanoTime();
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         setLayout(new BorderLayout(10, 10));
 
@@ -26,8 +27,7 @@ public class MainCredentialsDialog extends JDialog {
         mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
         // Create table
-        List<String> urls = loadUniqueUrls();
-        tableModel = new CredentialsTableModel(urls);
+        tableModel = CredentialsPreloader.takeModel();
         table = new JTable(tableModel) {
             @Override
             public Class<?> getColumnClass(int column) {
@@ -45,6 +45,8 @@ public class MainCredentialsDialog extends JDialog {
         checkboxColumn.setMaxWidth(50);
         checkboxColumn.setMinWidth(50);
         checkboxColumn.setResizable(false);
+        table.getColumnModel().getColumn(1).setPreferredWidth(350);
+        table.getColumnModel().getColumn(2).setPreferredWidth(150);
 
         table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
@@ -55,8 +57,10 @@ public class MainCredentialsDialog extends JDialog {
             public void mouseClicked(java.awt.event.MouseEvent e) {
                 int col = table.columnAtPoint(e.getPoint());
                 if (col == 1) { // Sort by URL column
+                    String highlightedUrl = getHighlightedUrl();
                     ascendingSort = !ascendingSort;
                     tableModel.sortByUrl(ascendingSort);
+                    selectUrl(highlightedUrl);
                 } else if (col == 0) {
                     // Toggle select/deselect all
                     boolean anyUnselected = tableModel.isAnyRowUnselected();
@@ -67,10 +71,28 @@ public class MainCredentialsDialog extends JDialog {
 
         th.setToolTipText(res.getString("icp.main.table.headerTip"));
 
+        // Filter field above the table
+        JPanel filterPanel = new JPanel(new BorderLayout(5, 0));
+        filterPanel.add(new JLabel(res.getString("icp.main.filterLabel")), BorderLayout.WEST);
+        JTextField filterField = new JTextField();
+        filterField.setToolTipText(res.getString("icp.main.filterTip"));
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override public void insertUpdate(javax.swing.event.DocumentEvent e) { applyFilter(filterField.getText()); }
+            @Override public void removeUpdate(javax.swing.event.DocumentEvent e) { applyFilter(filterField.getText()); }
+            @Override public void changedUpdate(javax.swing.event.DocumentEvent e) { applyFilter(filterField.getText()); }
+        });
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        mainPanel.add(filterPanel, BorderLayout.NORTH);
+
         JScrollPane scrollPane = new JScrollPane(table);
         scrollPane.setPreferredSize(new Dimension(500, 300));
         mainPanel.add(scrollPane, BorderLayout.CENTER);
 
+        selectionLabel = new JLabel();
+        mainPanel.add(selectionLabel, BorderLayout.SOUTH);
+        tableModel.addTableModelListener(e -> updateSelectionLabel());
+        updateSelectionLabel();
+
         // Right panel with vertically stacked buttons
         JPanel rightPanel = new JPanel();
         rightPanel.setLayout(new BoxLayout(rightPanel, BoxLayout.Y_AXIS));
@@ -82,10 +104,14 @@ public class MainCredentialsDialog extends JDialog {
         JButton editButton = new JButton(res.getString("icp.main.edit"));
         JButton exportButton = new JButton(res.getString("icp.main.exportSelected"));
         JButton deleteButton = new JButton(res.getString("icp.main.deleteSelected"));
+        JButton collapseButton = new JButton(res.getString("icp.main.collapseDuplicates"));
+        JButton verifyButton = new JButton(res.getString("icp.main.verifySelected"));
+        JButton undoButton = new JButton(res.getString("icp.main.undo"));
 
         // Set smaller margins (internal padding) for all buttons
         Insets smallMargin = new Insets(2, 8, 2, 8); // top, left, bottom, right
-        JButton[] buttons = {importButton, addButton, editButton, exportButton, deleteButton};
+        JButton[] buttons = {importButton, addButton, editButton, exportButton, deleteButton, collapseButton,
+                verifyButton, undoButton};
         for (JButton btn : buttons) {
             btn.setMargin(smallMargin);
         }
@@ -120,8 +146,11 @@ public class MainCredentialsDialog extends JDialog {
         editButton.addActionListener(e -> handleEdit());
         exportButton.addActionListener(e -> handleExportSelected());
         deleteButton.addActionListener(e -> handleDeleteSelected());
+        collapseButton.addActionListener(e -> handleCollapseDuplicates());
+        verifyButton.addActionListener(e -> handleVerifySelected());
+        undoButton.addActionListener(e -> handleUndo());
 
-        // Add buttons with spacing in order: Import, Add, Edit, Export, Delete
+        // Add buttons with spacing in order: Import, Add, Edit, Export, Delete, Collapse, Verify, Undo
         rightPanel.add(importButton);
         rightPanel.add(Box.createRigidArea(new Dimension(0, 5)));
         rightPanel.add(addButton);
@@ -131,6 +160,12 @@ public class MainCredentialsDialog extends JDialog {
         rightPanel.add(exportButton);
         rightPanel.add(Box.createRigidArea(new Dimension(0, 5)));
         rightPanel.add(deleteButton);
+        rightPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        rightPanel.add(collapseButton);
+        rightPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        rightPanel.add(verifyButton);
+        rightPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        rightPanel.add(undoButton);
         rightPanel.add(Box.createVerticalGlue()); // Push buttons to top
 
         mainPanel.add(rightPanel, BorderLayout.EAST);
@@ -146,6 +181,15 @@ public class MainCredentialsDialog extends JDialog {
         pack();
         setLocationRelativeTo(owner);
         setMinimumSize(new Dimension(650, 400));
+
+        // Until the dialog is on screen, as the user sees it
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowOpened(java.awt.event.WindowEvent e) {
+                CredentialMetrics.record(CredentialMetrics.Operation.DIALOG_OPEN, openStart,
+                        tableModel.getRowCount());
+            }
+        });
     }
 
     private void handleImport() {
@@ -177,32 +221,35 @@ public class MainCredentialsDialog extends JDialog {
     }
 
     private void handleExportSelected() {
-        List<String> selectedUrls = getSelectedUrls();
-
-        // If no checkboxes selected, use highlighted row
+        List<String> selectedUrls = selectedOrHighlightedUrls();
         if (selectedUrls.isEmpty()) {
-            int highlightedRow = table.getSelectedRow();
-
-            if (highlightedRow < 0) {
-                // No highlighted row either, show message
-                JOptionPane.showMessageDialog(this,
-                        res.getString("icp.main.noSelection"),
-                        res.getString("icp.main.warningTitle"),
-                        JOptionPane.WARNING_MESSAGE);
-                return;
-            }
-
-            // Use the highlighted row
-            String url = (String) tableModel.getValueAt(highlightedRow, 1);
-            selectedUrls = new ArrayList<>();
-            selectedUrls.add(url);
+            return;
         }
 
         JFileChooser saveChooser = new JFileChooser(System.getProperty("user.home"));
         saveChooser.setDialogTitle(res.getString("icp.main.exportDialogTitle"));
         saveChooser.setSelectedFile(new File("export_credentials.properties"));
-        saveChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
-                res.getString("icp.main.fileFilter"), "properties"));
+        javax.swing.filechooser.FileNameExtensionFilter propertiesFilter =
+                new javax.swing.filechooser.FileNameExtensionFilter(
+                        res.getString("icp.main.fileFilter"), "properties");
+        javax.swing.filechooser.FileNameExtensionFilter gzipFilter =
+                new javax.swing.filechooser.FileNameExtensionFilter(
+                        res.getString("icp.main.fileFilterGzip"), "gz");
+        javax.swing.filechooser.FileNameExtensionFilter zipFilter =
+                new javax.swing.filechooser.FileNameExtensionFilter(
+                        res.getString("icp.main.fileFilterZip"), "zip");
+        javax.swing.filechooser.FileNameExtensionFilter encryptedFilter =
+                new javax.swing.filechooser.FileNameExtensionFilter(
+                        res.getString("icp.main.fileFilterEncrypted"), "enc");
+        javax.swing.filechooser.FileNameExtensionFilter snapshotFilter =
+                new javax.swing.filechooser.FileNameExtensionFilter(
+                        res.getString("icp.main.fileFilterSnapshot"), "credsnap");
+        saveChooser.addChoosableFileFilter(propertiesFilter);
+        saveChooser.addChoosableFileFilter(gzipFilter);
+        saveChooser.addChoosableFileFilter(zipFilter);
+        saveChooser.addChoosableFileFilter(encryptedFilter);
+        saveChooser.addChoosableFileFilter(snapshotFilter);
+        saveChooser.setFileFilter(propertiesFilter);
 
         int result = saveChooser.showSaveDialog(this);
         if (result != JFileChooser.APPROVE_OPTION) {
@@ -210,59 +257,90 @@ public class MainCredentialsDialog extends JDialog {
         }
 
         File file = saveChooser.getSelectedFile();
-        try (FileOutputStream fos = new FileOutputStream(file);
-             BufferedWriter writer = new BufferedWriter(
-                     new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
-
-            Properties exportProps = new Properties();
-            for (String url : selectedUrls) {
-                String username = TeamSettings.get(url + "!username");
-                String password = TeamSettings.get(url + "!password");
-                if (username != null) {
-                    exportProps.setProperty(url + "!username", username);
-                }
-                if (password != null) {
-                    exportProps.setProperty(url + "!password", password);
+        // The format follows the file name, so make it match a bundle filter
+        BundleFormat format = saveChooser.getFileFilter() == gzipFilter ? BundleFormat.GZIP
+                : saveChooser.getFileFilter() == zipFilter ? BundleFormat.ZIP
+                : saveChooser.getFileFilter() == encryptedFilter ? BundleFormat.ENCRYPTED
+                : saveChooser.getFileFilter() == snapshotFilter ? BundleFormat.SNAPSHOT : null;
+        if (format != null && BundleFormat.forFileName(file.getName()) != format) {
+            String name = file.getName().replaceFirst("(?i)\\.properties$", "");
+            file = new File(file.getParentFile(), name + format.getExtension());
+        }
+
+        char[] passphrase = null;
+        if (BundleFormat.forFileName(file.getName()) == BundleFormat.ENCRYPTED) {
+            passphrase = PassphrasePrompt.askNew(this);
+            if (passphrase == null) {
+                return;
+            }
+        }
+
+        ExportWorker worker = new ExportWorker(selectedUrls, file, passphrase);
+        worker.execute();
+        worker.progress.setVisible(true);
+    }
+
+    /**
+     * Writes the export file off the EDT; the passphrase is cleared once the
+     * export has finished, whether or not it succeeded.
+     */
+    private class ExportWorker extends SwingWorker<Integer, Void> {
+        private final List<String> urls;
+        private final File file;
+        private final char[] passphrase;
+        private final ProgressDialog progress;
+
+        ExportWorker(List<String> urls, File file, char[] passphrase) {
+            this.urls = urls;
+            this.file = file;
+            this.passphrase = passphrase;
+            this.progress = new ProgressDialog(MainCredentialsDialog.this,
+                    res.getString("icp.main.exportDialogTitle"), null);
+            progress.setMessage(res.getString("icp.main.exportProgress")
+                    .replace("{count}", Integer.toString(urls.size())));
+        }
+
+        @Override
+        protected Integer doInBackground() throws IOException {
+            try {
+                return CredentialExporter.export(urls, file, passphrase);
+            } finally {
+                if (passphrase != null) {
+                    Arrays.fill(passphrase, '\0');
                 }
             }
+        }
 
-            exportProps.store(writer, null);
-            writer.flush();
+        @Override
+        protected void done() {
+            progress.dispose();
 
-            JOptionPane.showMessageDialog(this,
+            int count;
+            try {
+                count = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                        res.getString("icp.main.exportError") + e.getCause().getMessage(),
+                        res.getString("icp.main.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            JOptionPane.showMessageDialog(MainCredentialsDialog.this,
                     res.getString("icp.main.exportSuccess")
-                            .replace("{count}", Integer.toString(selectedUrls.size())),
+                            .replace("{count}", Integer.toString(count)),
                     res.getString("icp.main.informationTitle"),
                     JOptionPane.INFORMATION_MESSAGE);
-
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this,
-                    res.getString("icp.main.exportError") + e.getMessage(),
-                    res.getString("icp.main.errorTitle"),
-                    JOptionPane.ERROR_MESSAGE);
         }
     }
 
     private void handleDeleteSelected() {
-        List<String> selectedUrls = getSelectedUrls();
-
-        // If no checkboxes selected, use highlighted row
+        List<String> selectedUrls = selectedOrHighlightedUrls();
         if (selectedUrls.isEmpty()) {
-            int highlightedRow = table.getSelectedRow();
-
-            if (highlightedRow < 0) {
-                // No highlighted row either, show message
-                JOptionPane.showMessageDialog(this,
-                        res.getString("icp.main.noSelection"),
-                        res.getString("icp.main.warningTitle"),
-                        JOptionPane.WARNING_MESSAGE);
-                return;
-            }
-
-            // Use the highlighted row
-            String url = (String) tableModel.getValueAt(highlightedRow, 1);
-            selectedUrls = new ArrayList<>();
-            selectedUrls.add(url);
+            return;
         }
 
         int choice = JOptionPane.showConfirmDialog(this,
@@ -276,146 +354,447 @@ public class MainCredentialsDialog extends JDialog {
             return;
         }
 
-        try {
-            for (String url : selectedUrls) {
-                TeamSettings.set(url + "!username", null);
-                TeamSettings.set(url + "!password", null);
+        DeleteWorker worker = new DeleteWorker(selectedUrls);
+        worker.execute();
+        worker.progress.setVisible(true);
+    }
+
+    /**
+     * Removes the credentials of all given URLs with a single store commit
+     * off the EDT, then drops the affected rows from the table.
+     */
+    private class DeleteWorker extends SwingWorker<List<String>, Void> {
+        private final List<String> urls;
+        private final ProgressDialog progress;
+
+        DeleteWorker(List<String> urls) {
+            this.urls = urls;
+            this.progress = new ProgressDialog(MainCredentialsDialog.this,
+                    res.getString("icp.main.deleteTitle"), null);
+            progress.setMessage(res.getString("icp.main.deleteProgress")
+                    .replace("{count}", Integer.toString(urls.size())));
+        }
+
+        @Override
+        protected List<String> doInBackground() {
+            long start = System.nanoTime();
+            CredentialEvents.Delete event = new CredentialEvents.Delete();
+            event.begin();
+            CredentialStore.Batch batch = CredentialStore.newBatch();
+            for (String url : urls) {
+                batch.removeCredentials(url);
+            }
+            CredentialStore.Batch undo = batch.commit(CredentialJournal.Kind.DELETE);
+
+            // URLs that had nothing left to delete, e.g. removed by another dialog
+            List<String> notFound = new ArrayList<>();
+            for (String url : urls) {
+                if (undo.get(url + CredentialStore.USERNAME_SUFFIX) == null
+                        && undo.get(url + CredentialStore.PASSWORD_SUFFIX) == null) {
+                    notFound.add(url);
+                }
             }
+            CredentialMetrics.record(CredentialMetrics.Operation.DELETE, start,
+                    urls.size() - notFound.size());
+            if (event.shouldCommit()) {
+                event.requested = urls.size();
+                event.entries = urls.size() - notFound.size();
+                event.finish();
+            }
+            return notFound;
+        }
 
-            JOptionPane.showMessageDialog(this,
-                    res.getString("icp.main.deleteSuccess")
-                            .replace("{count}", Integer.toString(selectedUrls.size())),
+        @Override
+        protected void done() {
+            progress.dispose();
+
+            List<String> notFound;
+            try {
+                notFound = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                        res.getString("icp.main.deleteError") + e.getCause().getMessage(),
+                        res.getString("icp.main.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+                refreshTable();
+                return;
+            }
+
+            tableModel.removeUrls(new HashSet<>(urls));
+
+            String message = res.getString("icp.main.deleteSuccess")
+                    .replace("{count}", Integer.toString(urls.size() - notFound.size()));
+            if (!notFound.isEmpty()) {
+                message += "\n\n" + res.getString("icp.main.deleteNotFound")
+                        .replace("{count}", Integer.toString(notFound.size()))
+                        + "\n" + String.join("\n", notFound.subList(0, Math.min(notFound.size(), 10)));
+            }
+            JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                    message,
                     res.getString("icp.main.informationTitle"),
                     JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
 
-            refreshTable();
-
-        } catch (Exception e) {
+    private void handleCollapseDuplicates() {
+        UrlCanonicalizer.Collapse collapse = new UrlCanonicalizer.Collapse(
+                CredentialIndex.getInstance().snapshot());
+        String skipped = "";
+        if (!collapse.getSkipped().isEmpty()) {
+            StringBuilder list = new StringBuilder(res.getString("icp.main.collapseSkipped")
+                    .replace("{count}", Integer.toString(collapse.getSkipped().size())));
+            for (List<String> group : collapse.getSkipped().subList(0, Math.min(collapse.getSkipped().size(), 5))) {
+                list.append("\n").append(String.join(", ", group));
+            }
+            skipped = list.toString();
+        }
+        if (collapse.getGroups() == 0) {
             JOptionPane.showMessageDialog(this,
-                    res.getString("icp.main.deleteError") + e.getMessage(),
-                    res.getString("icp.main.errorTitle"),
-                    JOptionPane.ERROR_MESSAGE);
+                    skipped.isEmpty() ? res.getString("icp.main.collapseNone") : skipped,
+                    res.getString("icp.main.collapseTitle"),
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
         }
-    }
 
-    public void refreshTable() {
-        List<String> urls = loadUniqueUrls();
-        tableModel.setUrls(urls);
+        String message = res.getString("icp.main.collapseConfirm")
+                .replace("{groups}", Integer.toString(collapse.getGroups()))
+                .replace("{removed}", Integer.toString(collapse.getRemoved()));
+        if (!skipped.isEmpty()) {
+            message += "\n\n" + skipped;
+        }
+        int choice = JOptionPane.showConfirmDialog(this,
+                message,
+                res.getString("icp.main.collapseTitle"),
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE);
+        if (choice != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        CollapseWorker worker = new CollapseWorker(collapse);
+        worker.execute();
+        worker.progress.setVisible(true);
     }
 
-    private List<String> loadUniqueUrls() {
-        Set<String> urlSet = new HashSet<>();
-        try {
-            for (Object keyObj : TeamSettings.listKeys()) {
-                String key = keyObj.toString();
-                if (key.contains("!username") || key.contains("!password")) {
-                    int idx = key.lastIndexOf('!');
-                    if (idx > 0) {
-                        String url = key.substring(0, idx);
-                        urlSet.add(url);
-                    }
-                }
-            }
-        } catch (Exception ex) {
-            // Log or ignore
+    /**
+     * Commits the merge of all duplicate groups with a single store write
+     * off the EDT.
+     */
+    private class CollapseWorker extends SwingWorker<Void, Void> {
+        private final UrlCanonicalizer.Collapse collapse;
+        private final ProgressDialog progress;
+
+        CollapseWorker(UrlCanonicalizer.Collapse collapse) {
+            this.collapse = collapse;
+            this.progress = new ProgressDialog(MainCredentialsDialog.this,
+                    res.getString("icp.main.collapseTitle"), null);
+            progress.setMessage(res.getString("icp.main.collapseProgress")
+                    .replace("{count}", Integer.toString(collapse.getRemoved())));
+        }
+
+        @Override
+        protected Void doInBackground() {
+            collapse.toBatch().commit(CredentialJournal.Kind.COLLAPSE);
+            return null;
         }
 
-        List<String> urls = new ArrayList<>(urlSet);
-        Collections.sort(urls);
-        return urls;
+        @Override
+        protected void done() {
+            progress.dispose();
+            try {
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                        res.getString("icp.main.collapseError") + e.getCause().getMessage(),
+                        res.getString("icp.main.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+                refreshTable();
+                return;
+            }
+
+            refreshTable();
+            JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                    res.getString("icp.main.collapseSuccess")
+                            .replace("{count}", Integer.toString(collapse.getRemoved())),
+                    res.getString("icp.main.informationTitle"),
+                    JOptionPane.INFORMATION_MESSAGE);
+        }
     }
 
-    private List<String> getSelectedUrls() {
-        List<String> selected = new ArrayList<>();
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            if ((Boolean) tableModel.getValueAt(i, 0)) {
-                selected.add((String) tableModel.getValueAt(i, 1));
+    private void handleVerifySelected() {
+        List<String> selectedUrls = selectedOrHighlightedUrls();
+        if (selectedUrls.isEmpty()) {
+            return;
+        }
+
+        CredentialIndex.Snapshot store = CredentialIndex.getInstance().snapshot();
+        Map<String, CredentialIndex.Entry> credentials = new LinkedHashMap<>();
+        for (String url : selectedUrls) {
+            CredentialIndex.Entry entry = store.get(url);
+            if (entry != null) {
+                credentials.put(url, entry);
             }
         }
-        return selected;
+
+        VerifyWorker worker = new VerifyWorker(credentials);
+        worker.execute();
+        worker.progress.setVisible(true);
     }
 
-    // Inner class: CredentialsTableModel
-    private static class CredentialsTableModel extends AbstractTableModel {
-        private final String[] COLUMN_NAMES;
-        private final Class<?>[] COLUMN_CLASSES = { Boolean.class, String.class };
+    /**
+     * Checks credentials against their remotes off the EDT, showing each
+     * result in the table as soon as it arrives.
+     */
+    private class VerifyWorker extends SwingWorker<Void, Object[]> {
+        private final Map<String, CredentialIndex.Entry> credentials;
+        private final CredentialVerifier verifier = new CredentialVerifier();
+        private final ProgressDialog progress;
+        private final int[] counts = new int[CredentialVerifier.Status.values().length];
+        private int done;
+        private volatile boolean cancelRequested;
+
+        VerifyWorker(Map<String, CredentialIndex.Entry> credentials) {
+            this.credentials = credentials;
+            this.progress = new ProgressDialog(MainCredentialsDialog.this,
+                    res.getString("icp.main.verifyTitle"), () -> {
+                        cancelRequested = true;
+                        verifier.cancel();
+                    });
+            progress.setMessage(res.getString("icp.main.verifyProgress")
+                    .replace("{done}", "0")
+                    .replace("{count}", Integer.toString(credentials.size())));
+        }
 
-        private List<String> urls;
-        private List<Boolean> checked;
+        @Override
+        protected Void doInBackground() throws InterruptedException {
+            verifier.verify(credentials, (url, result) -> publish(new Object[] { url, result }));
+            return null;
+        }
 
-        CredentialsTableModel(List<String> urls) {
-            COLUMN_NAMES = new String[] {
-                res.getString("icp.main.table.checkLabel"),
-                res.getString("icp.main.table.urlLabel")
-            };
-            setUrls(urls);
+        @Override
+        protected void process(List<Object[]> results) {
+            for (Object[] pair : results) {
+                CredentialVerifier.Result result = (CredentialVerifier.Result) pair[1];
+                tableModel.setVerification((String) pair[0], result);
+                counts[result.getStatus().ordinal()]++;
+                done++;
+            }
+            progress.setMessage(res.getString("icp.main.verifyProgress")
+                    .replace("{done}", Integer.toString(done))
+                    .replace("{count}", Integer.toString(credentials.size())));
+            progress.setProgress(done * 100 / Math.max(credentials.size(), 1));
         }
 
-        public void setUrls(List<String> urls) {
-            this.urls = new ArrayList<>(urls);
-            this.checked = new ArrayList<>();
-            for (int i = 0; i < urls.size(); i++) {
-                checked.add(Boolean.FALSE);
+        @Override
+        protected void done() {
+            progress.dispose();
+            try {
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                        res.getString("icp.main.verifyError") + e.getCause().getMessage(),
+                        res.getString("icp.main.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            int valid = counts[CredentialVerifier.Status.VALID.ordinal()];
+            int rejected = counts[CredentialVerifier.Status.REJECTED.ordinal()];
+            String message = res.getString("icp.main.verifySummary")
+                    .replace("{count}", Integer.toString(done))
+                    .replace("{valid}", Integer.toString(valid))
+                    .replace("{rejected}", Integer.toString(rejected))
+                    .replace("{other}", Integer.toString(done - valid - rejected));
+            if (cancelRequested && done < credentials.size()) {
+                message += "\n\n" + res.getString("icp.main.verifyCancelled")
+                        .replace("{count}", Integer.toString(credentials.size() - done));
             }
-            fireTableDataChanged();
+            JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                    message,
+                    res.getString("icp.main.verifyTitle"),
+                    rejected > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
         }
+    }
 
-        @Override public int getRowCount() { return urls.size(); }
-        @Override public int getColumnCount() { return COLUMN_NAMES.length; }
-        @Override public String getColumnName(int col) { return COLUMN_NAMES[col]; }
-        @Override public Class<?> getColumnClass(int col) { return COLUMN_CLASSES[col]; }
-        @Override public Object getValueAt(int row, int col) {
-            if (col == 0) return checked.get(row);
-            return urls.get(row);
+    private void handleUndo() {
+        List<CredentialJournal.Operation> operations = CredentialJournal.getInstance().getOperations();
+        if (operations.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    res.getString("icp.main.undoNothing"),
+                    res.getString("icp.main.undoTitle"),
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
         }
-        @Override public boolean isCellEditable(int row, int col) {
-            return col == 0;
+
+        // Newest first; undoing one also undoes all those above it
+        java.text.DateFormat timeFormat = java.text.DateFormat.getDateTimeInstance(
+                java.text.DateFormat.SHORT, java.text.DateFormat.MEDIUM);
+        String[] labels = new String[operations.size()];
+        for (int i = 0; i < labels.length; i++) {
+            CredentialJournal.Operation operation = operations.get(i);
+            labels[i] = res.getString("icp.main.undoEntry")
+                    .replace("{time}", timeFormat.format(new Date(operation.getTime())))
+                    .replace("{operation}", res.getString("icp.journal."
+                            + operation.getKind().name().toLowerCase(Locale.ROOT)))
+                    .replace("{count}", Integer.toString(operation.getUrlCount()));
         }
-        @Override public void setValueAt(Object value, int row, int col) {
-            if (col == 0) {
-                checked.set(row, (Boolean) value);
-                fireTableCellUpdated(row, col);
-            }
+        JList<String> list = new JList<>(labels);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(Math.min(labels.length, 10));
+        list.setSelectedIndex(0);
+
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.add(new JLabel(res.getString("icp.main.undoChoose")), BorderLayout.NORTH);
+        panel.add(new JScrollPane(list), BorderLayout.CENTER);
+        int choice = JOptionPane.showConfirmDialog(this,
+                panel,
+                res.getString("icp.main.undoTitle"),
+                JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.QUESTION_MESSAGE);
+        if (choice != JOptionPane.OK_OPTION || list.getSelectedIndex() < 0) {
+            return;
         }
 
-        void selectAll(boolean select) {
-            for (int i = 0; i < checked.size(); i++) {
-                checked.set(i, select);
-            }
-            fireTableRowsUpdated(0, checked.size() - 1);
+        UndoWorker worker = new UndoWorker(operations.get(list.getSelectedIndex()).getSequence(),
+                list.getSelectedIndex() + 1);
+        worker.execute();
+        worker.progress.setVisible(true);
+    }
+
+    /**
+     * Reverts journaled operations with a single store commit off the EDT.
+     */
+    private class UndoWorker extends SwingWorker<CredentialJournal.UndoResult, Void> {
+        private final long oldest;
+        private final ProgressDialog progress;
+
+        UndoWorker(long oldest, int count) {
+            this.oldest = oldest;
+            this.progress = new ProgressDialog(MainCredentialsDialog.this,
+                    res.getString("icp.main.undoTitle"), null);
+            progress.setMessage(res.getString("icp.main.undoProgress")
+                    .replace("{count}", Integer.toString(count)));
         }
 
-        boolean isAnyRowUnselected() {
-            for (Boolean b : checked) {
-                if (!b) return true;
-            }
-            return false;
+        @Override
+        protected CredentialJournal.UndoResult doInBackground() throws IOException {
+            return CredentialJournal.getInstance().undo(oldest);
         }
 
-        void sortByUrl(boolean ascending) {
-            Comparator<String> comp = ascending ? 
-                    Comparator.naturalOrder() : Comparator.reverseOrder();
+        @Override
+        protected void done() {
+            progress.dispose();
 
-            List<String> sortedUrls = new ArrayList<>(urls);
-            sortedUrls.sort(comp);
+            CredentialJournal.UndoResult result;
+            try {
+                result = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                        res.getString("icp.main.undoError") + e.getCause().getMessage(),
+                        res.getString("icp.main.errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+                refreshTable();
+                return;
+            }
 
-            Map<String, Integer> sortedIndex = new HashMap<>();
-            for (int i = 0; i < sortedUrls.size(); i++) {
-                sortedIndex.put(sortedUrls.get(i), i);
+            refreshTable();
+            String message = res.getString("icp.main.undoSuccess")
+                    .replace("{count}", Integer.toString(result.getOperations()))
+                    .replace("{restored}", Integer.toString(result.getRestored()));
+            if (result.getSkipped() > 0) {
+                message += "\n\n" + res.getString("icp.main.undoSkipped")
+                        .replace("{count}", Integer.toString(result.getSkipped()));
             }
+            JOptionPane.showMessageDialog(MainCredentialsDialog.this,
+                    message,
+                    res.getString("icp.main.informationTitle"),
+                    result.getSkipped() > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
 
-            List<String> newUrls = new ArrayList<>(Collections.nCopies(urls.size(), null));
-            List<Boolean> newChecked = new ArrayList<>(Collections.nCopies(urls.size(), false));
+    public void refreshTable() {
+        long start = System.nanoTime();
+        CredentialEvents.TableRefresh event = new CredentialEvents.TableRefresh();
+        event.begin();
+        String highlightedUrl = getHighlightedUrl();
 
-            for (int i = 0; i < urls.size(); i++) {
-                int pos = sortedIndex.get(urls.get(i));
-                newUrls.set(pos, urls.get(i));
-                newChecked.set(pos, checked.get(i));
-            }
+        tableModel.setUrls(loadUniqueUrls());
+        tableModel.retainVerification(CredentialIndex.getInstance().snapshot());
+
+        // Row events keep the highlight in place unless that part was rebuilt
+        if (table.getSelectedRow() < 0) {
+            selectUrl(highlightedUrl);
+        }
+        CredentialMetrics.record(CredentialMetrics.Operation.REFRESH, start, tableModel.getRowCount());
+        if (event.shouldCommit()) {
+            event.entries = tableModel.getRowCount();
+            event.finish();
+        }
+    }
+
+    private void applyFilter(String text) {
+        String highlightedUrl = getHighlightedUrl();
+        tableModel.setFilter(text);
+        selectUrl(highlightedUrl);
+    }
+
+    private String getHighlightedUrl() {
+        int row = table.getSelectedRow();
+        return row >= 0 ? (String) tableModel.getValueAt(row, 1) : null;
+    }
+
+    private void selectUrl(String url) {
+        int row = url != null ? tableModel.indexOf(url) : -1;
+        if (row >= 0) {
+            table.setRowSelectionInterval(row, row);
+            table.scrollRectToVisible(table.getCellRect(row, 0, true));
+        }
+    }
+
+    private List<String> loadUniqueUrls() {
+        return CredentialIndex.getInstance().getUrls();
+    }
+
+    private List<String> getSelectedUrls() {
+        return tableModel.getCheckedUrls();
+    }
 
-            this.urls = newUrls;
-            this.checked = newChecked;
-            fireTableDataChanged();
+    /**
+     * Checked URLs, or the highlighted row's URL if none are checked. Warns
+     * the user and returns an empty list if there is neither.
+     */
+    private List<String> selectedOrHighlightedUrls() {
+        List<String> selectedUrls = getSelectedUrls();
+        if (!selectedUrls.isEmpty()) {
+            return selectedUrls;
         }
+
+        String highlightedUrl = getHighlightedUrl();
+        if (highlightedUrl == null) {
+            JOptionPane.showMessageDialog(this,
+                    res.getString("icp.main.noSelection"),
+                    res.getString("icp.main.warningTitle"),
+                    JOptionPane.WARNING_MESSAGE);
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(highlightedUrl);
+    }
+
+    private void updateSelectionLabel() {
+        selectionLabel.setText(res.getString("icp.main.selectionCount")
+                .replace("{selected}", Integer.toString(tableModel.getCheckedCount()))
+                .replace("{total}", Integer.toString(tableModel.getRowCount())));
     }
 }
@@ -0,0 +1,231 @@
+package be.capstan.omegat.plugin;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses several credential files at once on a bounded pool and merges them
+ * into one {@link ImportDiff}.
+ * <p>
+ * Precedence does not depend on which file finishes first: files are merged
+ * in the order given, which {@link #expand} makes the alphabetical order of
+ * their paths, and a value from a later file replaces the same key from an
+ * earlier one.
+ */
+class ParallelFileParser {
+    private static final int MAX_THREADS = 4;
+
+    /**
+     * Receives the running total of URLs read, from any parsing thread.
+     */
+    interface ProgressListener {
+        void onProgress(int urlCount);
+    }
+
+    private final List<File> files;
+    private final int publishInterval;
+    private final ProgressListener listener;
+    private final BundleFormat.PassphraseProvider passphrases;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicInteger urlCount = new AtomicInteger();
+    private volatile boolean cancelRequested;
+    private int duplicateUrls;
+
+    /**
+     * @param passphrases asked for the passphrase of encrypted bundles, from
+     *        the parsing threads; may be {@code null}
+     */
+    ParallelFileParser(List<File> files, int publishInterval, ProgressListener listener,
+            BundleFormat.PassphraseProvider passphrases) {
+        this.files = files;
+        this.publishInterval = publishInterval;
+        this.listener = listener;
+        this.passphrases = passphrases;
+    }
+
+    /**
+     * The given files, with directories replaced by the credential files
+     * (see {@link BundleFormat#isImportable}) directly
+     * inside them, in alphabetical order of their paths and
+     * without duplicates.
+     */
+    static List<File> expand(Collection<File> selected) {
+        SortedSet<File> files = new TreeSet<>();
+        for (File file : selected) {
+            if (file.isDirectory()) {
+                File[] children = file.listFiles((dir, name) -> BundleFormat.isImportable(name));
+                if (children != null) {
+                    for (File child : children) {
+                        if (child.isFile()) {
+                            files.add(child.getAbsoluteFile());
+                        }
+                    }
+                }
+            } else {
+                files.add(file.getAbsoluteFile());
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    static long totalLength(List<File> files) {
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    int getUrlCount() {
+        return urlCount.get();
+    }
+
+    /**
+     * Number of URLs found in more than one file by the last {@link #parse}.
+     */
+    int getDuplicateUrls() {
+        return duplicateUrls;
+    }
+
+    /**
+     * Stop parsing; {@link #parse} then throws {@link CancellationException}.
+     */
+    void cancel() {
+        cancelRequested = true;
+    }
+
+    ImportDiff parse() throws IOException {
+        if (files.isEmpty()) {
+            return new ImportDiff();
+        }
+        if (files.size() == 1) {
+            return parseFile(files.get(0));
+        }
+
+        int threads = Math.min(MAX_THREADS, Math.min(files.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1), r -> {
+            Thread thread = new Thread(r, "Credentials import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<ImportDiff>> results = new ArrayList<>(files.size());
+            for (File file : files) {
+                results.add(pool.submit(() -> parseFile(file)));
+            }
+
+            ImportDiff merged = null;
+            duplicateUrls = 0;
+            for (int i = 0; i < results.size(); i++) {
+                ImportDiff diff;
+                try {
+                    diff = results.get(i).get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                } catch (ExecutionException ex) {
+                    cancelRequested = true;
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof CancellationException) {
+                        throw (CancellationException) cause;
+                    }
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(files.get(i) + ": " + cause.getMessage(), cause);
+                }
+                if (merged == null) {
+                    merged = diff;
+                } else {
+                    duplicateUrls += merged.addAll(diff);
+                }
+            }
+            return merged;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private ImportDiff parseFile(File file) throws IOException {
+        long start = System.nanoTime();
+        CredentialEvents.Import event = new CredentialEvents.Import();
+        event.begin();
+        ImportDiff diff = new ImportDiff();
+        int[] count = {0};
+        CredentialFileParser.Handler handler = (url, username, password) -> {
+            if (cancelRequested) {
+                throw new CancellationException();
+            }
+            diff.add(url, username, password);
+            count[0]++;
+            int total = urlCount.incrementAndGet();
+            if (listener != null && total % publishInterval == 0) {
+                listener.onProgress(total);
+            }
+        };
+        try {
+            if (CredentialSnapshotFile.isSnapshot(file)) {
+                CredentialSnapshotFile.map(file.toPath()).forEach(handler);
+                bytesRead.addAndGet(file.length());
+            } else {
+                // Bytes are counted before decompression, to match the file length
+                try (InputStream in = new CountingInputStream(new FileInputStream(file))) {
+                    BundleFormat.read(in, file.getName(), passphrases, entry -> new CredentialFileParser(
+                            new InputStreamReader(entry, StandardCharsets.UTF_8)).parse(handler));
+                }
+            }
+        } catch (CancellationException ex) {
+            if (event.shouldCommit()) {
+                event.file = file.getPath();
+                event.entries = count[0];
+                event.cancelled = true;
+                event.finish();
+            }
+            throw ex;
+        } catch (IllegalArgumentException ex) {
+            // Malformed Unicode escape
+            throw new IOException(file + ": " + ex.getMessage(), ex);
+        }
+        CredentialMetrics.record(CredentialMetrics.Operation.IMPORT_PARSE, start, count[0]);
+        if (event.shouldCommit()) {
+            event.file = file.getPath();
+            event.entries = count[0];
+            event.bytesRead = file.length();
+            event.finish();
+        }
+        return diff;
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package be.capstan.omegat.plugin;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+/**
+ * Asks for the passphrase of an encrypted bundle. The returned arrays belong
+ * to the caller, who should clear them after use.
+ */
+public class PassphrasePrompt {
+    private static final ResourceBundle res = ResourceBundle.getBundle(
+            "ImportExportCredentials", Locale.getDefault());
+
+    private PassphrasePrompt() {
+    }
+
+    /**
+     * Ask for the passphrase of an existing bundle.
+     *
+     * @return the passphrase, or {@code null} if the user cancelled
+     */
+    public static char[] ask(Component parent, String fileName) {
+        JPasswordField field = new JPasswordField(25);
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.add(new JLabel(res.getString("icp.passphrase.enterFor").replace("{file}", fileName)),
+                BorderLayout.NORTH);
+        panel.add(field, BorderLayout.CENTER);
+
+        int choice = JOptionPane.showConfirmDialog(parent, panel,
+                res.getString("icp.passphrase.title"),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        char[] passphrase = field.getPassword();
+        field.setText("");
+        if (choice != JOptionPane.OK_OPTION || passphrase.length == 0) {
+            Arrays.fill(passphrase, '\0');
+            return null;
+        }
+        return passphrase;
+    }
+
+    /**
+     * Ask for a new passphrase, entered twice, until both entries match or
+     * the user cancels.
+     *
+     * @return the passphrase, or {@code null} if the user cancelled
+     */
+    public static char[] askNew(Component parent) {
+        JPasswordField field = new JPasswordField(25);
+        JPasswordField confirmField = new JPasswordField(25);
+
+        JPanel panel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(4, 4, 4, 4);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+
+        gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2;
+        panel.add(new JLabel(res.getString("icp.passphrase.newMessage")), gbc);
+
+        gbc.gridy = 1; gbc.gridwidth = 1; gbc.weightx = 0.0;
+        panel.add(new JLabel(res.getString("icp.passphrase.label")), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        panel.add(field, gbc);
+
+        gbc.gridx = 0; gbc.gridy = 2; gbc.weightx = 0.0;
+        panel.add(new JLabel(res.getString("icp.passphrase.confirmLabel")), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        panel.add(confirmField, gbc);
+
+        while (true) {
+            int choice = JOptionPane.showConfirmDialog(parent, panel,
+                    res.getString("icp.passphrase.title"),
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            char[] passphrase = field.getPassword();
+            char[] confirmation = confirmField.getPassword();
+            boolean matches = Arrays.equals(passphrase, confirmation);
+            Arrays.fill(confirmation, '\0');
+            if (choice != JOptionPane.OK_OPTION) {
+                Arrays.fill(passphrase, '\0');
+                field.setText("");
+                confirmField.setText("");
+                return null;
+            }
+
+            String problem = passphrase.length == 0 ? "icp.passphrase.empty"
+                    : !matches ? "icp.passphrase.mismatch" : null;
+            if (problem == null) {
+                field.setText("");
+                confirmField.setText("");
+                return passphrase;
+            }
+            Arrays.fill(passphrase, '\0');
+            JOptionPane.showMessageDialog(parent,
+                    res.getString(problem),
+                    res.getString("icp.passphrase.title"),
+                    JOptionPane.WARNING_MESSAGE);
+        }
+    }
+}
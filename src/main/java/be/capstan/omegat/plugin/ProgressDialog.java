@@ -0,0 +1,73 @@
+package be.capstan.omegat.plugin;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+/**
+ * Small modal dialog showing the progress of a background operation,
+ * with an optional Cancel button.
+ */
+public class ProgressDialog extends JDialog {
+    private static final ResourceBundle res = ResourceBundle.getBundle(
+            "ImportExportCredentials", Locale.getDefault());
+
+    private final JLabel messageLabel;
+    private final JProgressBar progressBar;
+    private final JButton cancelButton;
+    private boolean cancelRequested;
+
+    public ProgressDialog(Component parent, String title, Runnable onCancel) {
+        super(parent instanceof Window ? (Window) parent : SwingUtilities.getWindowAncestor(parent),
+                title, ModalityType.APPLICATION_MODAL);
+        setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+        setLayout(new BorderLayout(10, 10));
+
+        JPanel contentPanel = new JPanel(new BorderLayout(5, 5));
+        contentPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
+
+        messageLabel = new JLabel(" ");
+        contentPanel.add(messageLabel, BorderLayout.NORTH);
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setIndeterminate(true);
+        progressBar.setPreferredSize(new Dimension(350, progressBar.getPreferredSize().height));
+        contentPanel.add(progressBar, BorderLayout.CENTER);
+        add(contentPanel, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        cancelButton = new JButton(res.getString("icp.progress.cancelButton"));
+        cancelButton.setEnabled(onCancel != null);
+        cancelButton.addActionListener(e -> {
+            cancelRequested = true;
+            cancelButton.setEnabled(false);
+            messageLabel.setText(res.getString("icp.progress.cancelling"));
+            onCancel.run();
+        });
+        buttonPanel.add(cancelButton);
+        add(buttonPanel, BorderLayout.PAGE_END);
+
+        pack();
+        setResizable(false);
+        setLocationRelativeTo(getOwner());
+    }
+
+    public void setMessage(String message) {
+        if (!cancelRequested) {
+            messageLabel.setText(message);
+        }
+    }
+
+    /**
+     * Show a determinate percentage, or an indeterminate bar for negative values.
+     */
+    public void setProgress(int percent) {
+        if (percent < 0) {
+            progressBar.setIndeterminate(true);
+        } else {
+            progressBar.setIndeterminate(false);
+            progressBar.setValue(Math.min(percent, 100));
+        }
+    }
+}
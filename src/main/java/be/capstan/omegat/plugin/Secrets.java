@@ -0,0 +1,208 @@
+package be.capstan.omegat.plugin;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Conversion between passwords as typed ({@code char[]}) and as stored
+ * (Base64 of their UTF-8 bytes) without a {@code String} or unwiped array
+ * holding the plaintext.
+ * <p>
+ * Each thread reuses one UTF-8 encoder and decoder and their buffers, which
+ * are cleared after every call. Base64 is encoded and decoded directly
+ * between those buffers and the stored form, so the only new object holding
+ * plaintext is the {@code char[]} returned by {@link #decode}, which the
+ * caller clears. Both conversions give the same result as
+ * {@code Base64.getEncoder().encodeToString(s.getBytes(UTF_8))} and its
+ * inverse.
+ */
+final class Secrets {
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * Per-thread coders and buffers; buffers only grow, and are cleared
+     * before they are dropped.
+     */
+    private static final class Workspace {
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(64);
+        CharBuffer chars = CharBuffer.allocate(64);
+
+        ByteBuffer bytes(int capacity) {
+            if (bytes.capacity() < capacity) {
+                Arrays.fill(bytes.array(), (byte) 0);
+                bytes = ByteBuffer.allocate(Math.max(capacity, bytes.capacity() * 2));
+            }
+            bytes.clear();
+            return bytes;
+        }
+
+        CharBuffer chars(int capacity) {
+            if (chars.capacity() < capacity) {
+                Arrays.fill(chars.array(), '\0');
+                chars = CharBuffer.allocate(Math.max(capacity, chars.capacity() * 2));
+            }
+            chars.clear();
+            return chars;
+        }
+    }
+
+    private static final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    private Secrets() {
+    }
+
+    /**
+     * Stored form of {@code chars[start..end)}: Base64 of its UTF-8 bytes.
+     * The array is not cleared.
+     */
+    static String encode(char[] chars, int start, int end) {
+        Workspace workspace = workspaces.get();
+        CharsetEncoder encoder = workspace.encoder.reset();
+        ByteBuffer bytes = workspace.bytes((int) ((end - start) * (double) encoder.maxBytesPerChar()));
+        try {
+            CharBuffer in = CharBuffer.wrap(chars, start, end - start);
+            encoder.encode(in, bytes, true);
+            encoder.flush(bytes);
+            byte[] data = bytes.array();
+            int length = bytes.position();
+
+            // Only the Base64 text is kept, as the store keeps it anyway
+            char[] out = new char[(length + 2) / 3 * 4];
+            int o = 0;
+            int i = 0;
+            for (; i + 3 <= length; i += 3) {
+                int group = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+                out[o++] = ALPHABET[group >>> 18];
+                out[o++] = ALPHABET[group >>> 12 & 0x3f];
+                out[o++] = ALPHABET[group >>> 6 & 0x3f];
+                out[o++] = ALPHABET[group & 0x3f];
+            }
+            if (i < length) {
+                int group = (data[i] & 0xff) << 16 | (i + 1 < length ? (data[i + 1] & 0xff) << 8 : 0);
+                out[o++] = ALPHABET[group >>> 18];
+                out[o++] = ALPHABET[group >>> 12 & 0x3f];
+                out[o++] = i + 1 < length ? ALPHABET[group >>> 6 & 0x3f] : '=';
+                out[o] = '=';
+            }
+            return new String(out);
+        } finally {
+            Arrays.fill(bytes.array(), 0, bytes.position(), (byte) 0);
+        }
+    }
+
+    /**
+     * Password from its stored form; the caller clears the returned array.
+     *
+     * @throws IllegalArgumentException if {@code base64} is not valid Base64
+     */
+    static char[] decode(String base64) {
+        Workspace workspace = workspaces.get();
+        ByteBuffer bytes = workspace.bytes(base64.length() / 4 * 3 + 2);
+        byte[] data = bytes.array();
+        CharBuffer chars = null;
+        try {
+            int length = decodeBase64(base64, data);
+            bytes.limit(length);
+
+            CharsetDecoder decoder = workspace.decoder.reset();
+            chars = workspace.chars((int) (length * (double) decoder.maxCharsPerByte()) + 1);
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isOverflow()) {
+                throw new IllegalStateException("Password buffer too small");
+            }
+            decoder.flush(chars);
+            return Arrays.copyOf(chars.array(), chars.position());
+        } finally {
+            Arrays.fill(data, 0, bytes.limit(), (byte) 0);
+            if (chars != null) {
+                Arrays.fill(chars.array(), 0, chars.position(), '\0');
+            }
+        }
+    }
+
+    /**
+     * Decode Base64, with or without padding, into {@code out}.
+     *
+     * @return the number of bytes decoded
+     */
+    private static int decodeBase64(String base64, byte[] out) {
+        int end = base64.length();
+        int data = end;
+        while (data > 0 && base64.charAt(data - 1) == '=') {
+            data--;
+        }
+        if (end - data > 2 || end > data && end % 4 != 0 || data % 4 == 1) {
+            throw new IllegalArgumentException("Invalid Base64 length");
+        }
+        int o = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < data; i++) {
+            char c = base64.charAt(i);
+            int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Illegal Base64 character at " + i);
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                out[o++] = (byte) (bits >> 16);
+                out[o++] = (byte) (bits >> 8);
+                out[o++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            out[o++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            out[o++] = (byte) (bits >> 10);
+            out[o++] = (byte) (bits >> 2);
+        }
+        return o;
+    }
+
+    /**
+     * Index of the first character of {@code chars} that is not whitespace,
+     * as {@link String#strip} sees it.
+     */
+    static int stripStart(char[] chars) {
+        int start = 0;
+        while (start < chars.length && Character.isWhitespace(chars[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Index after the last character of {@code chars[start..]} that is not
+     * whitespace.
+     */
+    static int stripEnd(char[] chars, int start) {
+        int end = chars.length;
+        while (end > start && Character.isWhitespace(chars[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,278 @@
+package be.capstan.omegat.plugin;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical form of repository URLs, to recognise near-duplicates such as
+ * {@code https://Git.Example.com/repo}, {@code https://git.example.com/repo/}
+ * and {@code https://user@git.example.com:443/repo.git}.
+ * <p>
+ * The canonical form lower-cases the scheme and host, drops user info, the
+ * default port of the scheme, trailing slashes and a {@code .git} suffix.
+ * Paths keep their case, as most servers treat them as case-sensitive.
+ * URLs that are not hierarchical (e.g. scp-style {@code git@host:repo}) are
+ * only trimmed.
+ * <p>
+ * It is only used to compare URLs: the store keeps URLs as they were
+ * entered, because OmegaT looks credentials up by the exact repository URL
+ * of a project.
+ */
+final class UrlCanonicalizer {
+    // Results are cached up to this many URLs, then the cache starts over
+    private static final int MAX_CACHE_SIZE = 1 << 18;
+
+    private static final Map<String, String> cache = new ConcurrentHashMap<>();
+
+    private UrlCanonicalizer() {
+    }
+
+    static String canonicalize(String url) {
+        String canonical = cache.get(url);
+        if (canonical == null) {
+            canonical = compute(url);
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(url, canonical);
+        }
+        return canonical;
+    }
+
+    static boolean isEquivalent(String a, String b) {
+        return a.equals(b) || canonicalize(a).equals(canonicalize(b));
+    }
+
+    private static String compute(String url) {
+        String trimmed = url.strip();
+        int schemeEnd = trimmed.indexOf("://");
+        if (schemeEnd <= 0) {
+            return trimmed;
+        }
+        String scheme = trimmed.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+
+        int authStart = schemeEnd + 3;
+        int authEnd = authorityEnd(trimmed, authStart);
+        int hostStart = Math.max(trimmed.lastIndexOf('@', authEnd - 1) + 1, authStart);
+        String hostPort = trimmed.substring(hostStart, authEnd).toLowerCase(Locale.ROOT);
+        int portSep = hostPort.lastIndexOf(':');
+        // A colon inside an IPv6 literal is not a port separator
+        if (portSep >= 0 && hostPort.lastIndexOf(']') < portSep
+                && hostPort.substring(portSep + 1).equals(defaultPort(scheme))) {
+            hostPort = hostPort.substring(0, portSep);
+        } else if (portSep >= 0 && portSep == hostPort.length() - 1) {
+            hostPort = hostPort.substring(0, portSep);
+        }
+
+        String path = trimmed.substring(authEnd);
+        int queryStart = path.length();
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '?' || path.charAt(i) == '#') {
+                queryStart = i;
+                break;
+            }
+        }
+        return scheme + "://" + hostPort + normalizePath(path.substring(0, queryStart))
+                + path.substring(queryStart);
+    }
+
+    /**
+     * User name in the user info of a hierarchical URL, without any
+     * password; {@code null} if it has none.
+     */
+    static String userOf(String url) {
+        String trimmed = url.strip();
+        int schemeEnd = trimmed.indexOf("://");
+        if (schemeEnd <= 0) {
+            return null;
+        }
+        int authStart = schemeEnd + 3;
+        int at = trimmed.lastIndexOf('@', authorityEnd(trimmed, authStart) - 1);
+        if (at < authStart) {
+            return null;
+        }
+        int colon = trimmed.indexOf(':', authStart);
+        return trimmed.substring(authStart, colon >= 0 && colon < at ? colon : at);
+    }
+
+    private static int authorityEnd(String url, int authStart) {
+        int authEnd = authStart;
+        while (authEnd < url.length() && "/?#".indexOf(url.charAt(authEnd)) < 0) {
+            authEnd++;
+        }
+        return authEnd;
+    }
+
+    /**
+     * Path without trailing slashes and {@code .git} suffix.
+     */
+    static String normalizePath(String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        if (end >= 4 && path.regionMatches(true, end - 4, ".git", 0, 4)) {
+            end -= 4;
+            while (end > 0 && path.charAt(end - 1) == '/') {
+                end--;
+            }
+        }
+        return path.substring(0, end);
+    }
+
+    /**
+     * Default port of a lower-case scheme, or {@code null} if it has none
+     * known.
+     */
+    static String defaultPort(String scheme) {
+        switch (scheme) {
+            case "http":
+                return "80";
+            case "https":
+                return "443";
+            case "ssh":
+            case "svn+ssh":
+            case "git+ssh":
+                return "22";
+            case "git":
+                return "9418";
+            case "svn":
+                return "3690";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Groups of two or more URLs with the same canonical form, by canonical
+     * form; each group in the order of {@code urls}.
+     */
+    static Map<String, List<String>> findDuplicates(Collection<String> urls) {
+        Map<String, List<String>> groups = new HashMap<>();
+        for (String url : urls) {
+            groups.computeIfAbsent(canonicalize(url), k -> new ArrayList<>(1)).add(url);
+        }
+        groups.values().removeIf(group -> group.size() < 2);
+        return groups;
+    }
+
+    /**
+     * How to merge each group of equivalent URLs in the store into one
+     * entry: the URL that has both values (preferring one already in
+     * canonical form, then the first in order) survives, fills in values it
+     * lacks from the others, and the others are removed.
+     * <p>
+     * Groups whose entries hold different user names or passwords, or whose
+     * URLs name different users, are separate accounts rather than
+     * near-duplicates, and are left as they are.
+     */
+    static final class Collapse {
+        private final CredentialStore.Batch batch = CredentialStore.newBatch();
+        private int groups;
+        private int removed;
+        // Groups left alone, each sorted, in URL order
+        private final List<List<String>> skipped = new ArrayList<>();
+
+        Collapse(CredentialIndex.Snapshot store) {
+            for (Map.Entry<String, List<String>> group : findDuplicates(store.getUrls()).entrySet()) {
+                List<String> urls = group.getValue();
+                if (isConflicting(urls, store)) {
+                    List<String> sorted = new ArrayList<>(urls);
+                    Collections.sort(sorted);
+                    skipped.add(sorted);
+                    continue;
+                }
+
+                String survivor = null;
+                int bestRank = -1;
+                for (String url : urls) {
+                    CredentialIndex.Entry entry = store.get(url);
+                    int rank = (entry.getUsername() != null && entry.getPassword() != null ? 2 : 0)
+                            + (url.equals(group.getKey()) ? 1 : 0);
+                    if (rank > bestRank) {
+                        survivor = url;
+                        bestRank = rank;
+                    }
+                }
+
+                CredentialIndex.Entry kept = store.get(survivor);
+                String username = kept.getUsername();
+                String password = kept.getPassword();
+                for (String url : urls) {
+                    if (url.equals(survivor)) {
+                        continue;
+                    }
+                    CredentialIndex.Entry other = store.get(url);
+                    if (username == null) {
+                        username = other.getUsername();
+                    }
+                    if (password == null) {
+                        password = other.getPassword();
+                    }
+                    batch.removeCredentials(url);
+                    removed++;
+                }
+                if (!Objects.equals(username, kept.getUsername()) || !Objects.equals(password, kept.getPassword())) {
+                    batch.setCredentials(survivor, username, password);
+                }
+                groups++;
+            }
+            skipped.sort(Comparator.comparing(group -> group.get(0)));
+        }
+
+        /**
+         * Whether two URLs of the group name different users, or two entries
+         * hold different values for the same key.
+         */
+        private static boolean isConflicting(List<String> urls, CredentialIndex.Snapshot store) {
+            String user = null;
+            String username = null;
+            String password = null;
+            for (String url : urls) {
+                CredentialIndex.Entry entry = store.get(url);
+                String urlUser = userOf(url);
+                if (differs(user, urlUser) || differs(username, entry.getUsername())
+                        || differs(password, entry.getPassword())) {
+                    return true;
+                }
+                user = user != null ? user : urlUser;
+                username = username != null ? username : entry.getUsername();
+                password = password != null ? password : entry.getPassword();
+            }
+            return false;
+        }
+
+        private static boolean differs(String seen, String value) {
+            return seen != null && value != null && !seen.equals(value);
+        }
+
+        /**
+         * Number of groups of equivalent URLs that are merged.
+         */
+        int getGroups() {
+            return groups;
+        }
+
+        /**
+         * Number of entries that would be removed.
+         */
+        int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Groups of equivalent URLs left alone because they hold different
+         * accounts.
+         */
+        List<List<String>> getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * All removals and merged values, to be committed at once.
+         */
+        CredentialStore.Batch toBatch() {
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package be.capstan.omegat.plugin;
+
+import java.util.*;
+
+/**
+ * Case-insensitive substring search over a fixed list of URLs.
+ * <p>
+ * Every three-character sequence of every URL maps to the ascending list of
+ * rows containing it. A query of three or more characters only looks at the
+ * rows present in the posting lists of all its trigrams; shorter queries fall
+ * back to a scan.
+ */
+class UrlTrigramIndex {
+    private static final int[] NO_ROWS = new int[0];
+
+    private final String[] lowerUrls;
+    private final Map<Long, int[]> postings;
+
+    UrlTrigramIndex(List<String> urls) {
+        lowerUrls = new String[urls.size()];
+        Map<Long, RowList> lists = new HashMap<>();
+
+        for (int row = 0; row < lowerUrls.length; row++) {
+            String url = urls.get(row).toLowerCase(Locale.ROOT);
+            lowerUrls[row] = url;
+            for (int i = 0; i + 3 <= url.length(); i++) {
+                lists.computeIfAbsent(trigram(url, i), k -> new RowList()).add(row);
+            }
+        }
+
+        postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<Long, RowList> entry : lists.entrySet()) {
+            RowList list = entry.getValue();
+            postings.put(entry.getKey(), Arrays.copyOf(list.rows, list.size));
+        }
+    }
+
+    private static class RowList {
+        int[] rows = new int[4];
+        int size;
+
+        void add(int row) {
+            if (size > 0 && rows[size - 1] == row) {
+                return; // trigram repeated within the same URL
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * Rows whose URL contains the query, ignoring case, in ascending order.
+     */
+    int[] search(String query) {
+        String q = query.toLowerCase(Locale.ROOT);
+        if (q.length() < 3) {
+            return scan(null, q);
+        }
+
+        List<int[]> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            int[] list = postings.get(trigram(q, i));
+            if (list == null) {
+                return NO_ROWS;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+
+        int[] candidates = lists.get(0);
+        for (int k = 1; k < lists.size() && candidates.length > 0; k++) {
+            if (candidates.length * 16 < lists.get(k).length) {
+                break; // cheaper to verify the few candidates left than to merge
+            }
+            candidates = intersect(candidates, lists.get(k));
+        }
+        // Trigrams can match out of order, so confirm each candidate
+        return scan(candidates, q);
+    }
+
+    /**
+     * Narrow an earlier result to the rows that also contain {@code query};
+     * used when the query only grew.
+     */
+    int[] refine(int[] rows, String query) {
+        return scan(rows, query.toLowerCase(Locale.ROOT));
+    }
+
+    private int[] scan(int[] rows, String q) {
+        int count = rows == null ? lowerUrls.length : rows.length;
+        int[] result = new int[count];
+        int n = 0;
+        for (int k = 0; k < count; k++) {
+            int row = rows == null ? k : rows[k];
+            if (lowerUrls[row].contains(q)) {
+                result[n++] = row;
+            }
+        }
+        return n == count ? result : Arrays.copyOf(result, n);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
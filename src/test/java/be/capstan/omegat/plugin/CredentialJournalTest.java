@@ -0,0 +1,181 @@
+package be.capstan.omegat.plugin;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs {@link CredentialJournal} against a store in a temporary
+ * configuration folder.
+ */
+class CredentialJournalTest {
+    private static final String A = "https://host/a";
+    private static final String B = "https://host/b";
+
+    private CredentialJournal journal;
+
+    @BeforeEach
+    void setUp() {
+        TestStore.clear();
+        journal = CredentialJournal.getInstance();
+    }
+
+    @Test
+    void undoRestoresPreviousValues() throws IOException {
+        long added = commit(CredentialJournal.Kind.ADD, A, "alice", "cA==");
+        long edited = commit(CredentialJournal.Kind.EDIT, A, "bob", "cQ==");
+
+        CredentialJournal.UndoResult result = journal.undo(edited);
+        assertEquals(1, result.getOperations());
+        assertEquals(2, result.getRestored());
+        assertEquals(0, result.getSkipped());
+        assertEntry(A, "alice", "cA==");
+        assertFalse(sequences().contains(edited));
+
+        journal.undo(added);
+        assertNull(stored(A));
+        assertFalse(sequences().contains(added));
+    }
+
+    @Test
+    void multiStepUndoSkipsKeysChangedSince() throws IOException {
+        CredentialStore.Batch batch = CredentialStore.newBatch();
+        batch.setCredentials(A, "alice", null);
+        batch.setCredentials(B, "bob", null);
+        batch.commit(CredentialJournal.Kind.IMPORT);
+        long imported = newest();
+        long edited = commit(CredentialJournal.Kind.EDIT, A, "alice2", null);
+        // Changed outside the journal, e.g. by OmegaT
+        TestStore.put(B, "carol", null);
+
+        CredentialJournal.UndoResult result = journal.undo(imported);
+        assertEquals(2, result.getOperations());
+        assertEquals(1, result.getRestored());
+        assertEquals(1, result.getSkipped());
+        assertNull(stored(A));
+        assertEntry(B, "carol", null);
+        assertFalse(sequences().contains(imported));
+        assertFalse(sequences().contains(edited));
+    }
+
+    @Test
+    void undoneOperationsStayUndoneAfterReload() throws IOException {
+        long first = commit(CredentialJournal.Kind.ADD, A, "alice", "cA==");
+        long second = commit(CredentialJournal.Kind.ADD, B, "bob", "cQ==");
+        journal.undo(second);
+
+        List<Long> reloaded = new ArrayList<>();
+        for (CredentialJournal.Operation operation : new CredentialJournal(journalFile()).getOperations()) {
+            reloaded.add(operation.getSequence());
+        }
+        assertTrue(reloaded.contains(first));
+        assertFalse(reloaded.contains(second));
+    }
+
+    @Test
+    void tornRecordIsDroppedAndOverwritten() throws IOException {
+        File file = Files.createTempDirectory(TestStore.configDir(), "journal")
+                .resolve(CredentialJournal.JOURNAL_FILE_NAME).toFile();
+        CredentialJournal written = new CredentialJournal(file);
+        written.record(CredentialJournal.Kind.ADD, Collections.emptyMap(), change(A, "alice"));
+        written.record(CredentialJournal.Kind.ADD, Collections.emptyMap(), change(B, "bob"));
+        long intact = file.length();
+
+        // A crash in the middle of the second record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(intact - 3);
+        }
+        CredentialJournal reloaded = new CredentialJournal(file);
+        assertEquals(1, reloaded.getOperations().size());
+        assertEquals(1, reloaded.getOperations().get(0).getSequence());
+
+        // The next record goes where the torn one started; left in between,
+        // the torn bytes would hide it on the next load
+        reloaded.record(CredentialJournal.Kind.EDIT, change(A, "alice"), change(A, "alice2"));
+        List<CredentialJournal.Operation> operations = new CredentialJournal(file).getOperations();
+        assertEquals(2, operations.size());
+        assertEquals(CredentialJournal.Kind.EDIT, operations.get(0).getKind());
+        assertEquals(2, operations.get(0).getSequence());
+    }
+
+    @Test
+    void garbageAfterTheLastRecordIsIgnored() throws IOException {
+        File file = Files.createTempDirectory(TestStore.configDir(), "journal")
+                .resolve(CredentialJournal.JOURNAL_FILE_NAME).toFile();
+        new CredentialJournal(file).record(CredentialJournal.Kind.ADD, Collections.emptyMap(), change(A, "alice"));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[] { 0, 0, 0, 20, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19,
+                    20, 21, 22, 23, 24 });
+        }
+        assertEquals(1, new CredentialJournal(file).getOperations().size());
+    }
+
+    @Test
+    void compactionKeepsNewestOperationsUndoable() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        for (int i = 0; i < CredentialJournal.MAX_RECORDS + 20; i++) {
+            sequences.add(commit(CredentialJournal.Kind.EDIT, A + (i % 7), "user" + i, null));
+        }
+        List<Long> live = sequences();
+        assertFalse(live.contains(sequences.get(0)), "oldest operation dropped by compaction");
+        assertTrue(live.size() <= CredentialJournal.MAX_RECORDS, "operations kept: " + live.size());
+        assertTrue(live.size() >= CredentialJournal.KEEP_OPERATIONS, "operations kept: " + live.size());
+        assertEquals(sequences.get(sequences.size() - 1), live.get(0));
+
+        // Offsets moved by the compaction still point at the right records
+        int last = sequences.size() - 1;
+        journal.undo(sequences.get(last - 13));
+        for (int k = 0; k < 7; k++) {
+            int i = last - 14 - ((last - 14 - k) % 7 + 7) % 7;
+            assertEntry(A + (i % 7), "user" + i, null);
+        }
+        CredentialJournal reloaded = new CredentialJournal(journalFile());
+        assertEquals(live.size() - 14, reloaded.getOperations().size());
+        assertEquals((long) sequences.get(last - 14), reloaded.getOperations().get(0).getSequence());
+    }
+
+    private long commit(CredentialJournal.Kind kind, String url, String username, String password) {
+        CredentialStore.Batch batch = CredentialStore.newBatch();
+        batch.setCredentials(url, username, password);
+        batch.commit(kind);
+        return newest();
+    }
+
+    private long newest() {
+        return journal.getOperations().get(0).getSequence();
+    }
+
+    private List<Long> sequences() {
+        List<Long> sequences = new ArrayList<>();
+        for (CredentialJournal.Operation operation : journal.getOperations()) {
+            sequences.add(operation.getSequence());
+        }
+        return sequences;
+    }
+
+    private static Map<String, String> change(String url, String username) {
+        return Collections.singletonMap(url + CredentialStore.USERNAME_SUFFIX, username);
+    }
+
+    private static File journalFile() {
+        return new File(TestStore.configDir().toFile(), CredentialJournal.JOURNAL_FILE_NAME);
+    }
+
+    private static CredentialIndex.Entry stored(String url) {
+        return CredentialIndex.getInstance().snapshot().get(url);
+    }
+
+    private static void assertEntry(String url, String username, String password) {
+        CredentialIndex.Entry entry = stored(url);
+        assertNotNull(entry);
+        assertEquals(username, entry.getUsername());
+        assertEquals(password, entry.getPassword());
+    }
+}
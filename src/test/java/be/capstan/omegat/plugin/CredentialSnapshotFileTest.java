@@ -0,0 +1,157 @@
+package be.capstan.omegat.plugin;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round trips between {@code .properties} files and
+ * {@link CredentialSnapshotFile}, and single lookups in a snapshot.
+ */
+class CredentialSnapshotFileTest {
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("credentials-snapshot-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void roundTripThroughProperties() throws IOException {
+        Map<String, CredentialIndex.Entry> credentials = credentials(5000);
+        File properties = dir.resolve("in.properties").toFile();
+        writeProperties(properties, credentials);
+
+        // .properties -> snapshot
+        Map<String, CredentialIndex.Entry> parsed = new LinkedHashMap<>();
+        try (Reader reader = new InputStreamReader(new FileInputStream(properties), StandardCharsets.UTF_8)) {
+            new CredentialFileParser(reader).parse((url, username, password) ->
+                    parsed.put(url, new CredentialIndex.Entry(username, password)));
+        }
+        Path snapshot = dir.resolve("store.credsnap");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(snapshot.toFile()))) {
+            assertEquals(credentials.size(),
+                    CredentialSnapshotFile.write(out, parsed.keySet(), parsed::get, properties.length(), 0));
+        }
+
+        // snapshot -> .properties
+        Map<String, CredentialIndex.Entry> read = new HashMap<>();
+        CredentialSnapshotFile.read(snapshot).forEach((url, username, password) ->
+                read.put(url, new CredentialIndex.Entry(username, password)));
+        assertEquals(describe(credentials), describe(read));
+        File back = dir.resolve("out.properties").toFile();
+        writeProperties(back, read);
+
+        assertEquals(load(properties), load(back));
+    }
+
+    @Test
+    void getFindsEveryEntryAndNothingElse() throws IOException {
+        for (int size : new int[] { 0, 1, CredentialSnapshotFile.BLOCK_SIZE, CredentialSnapshotFile.BLOCK_SIZE + 1,
+                1000 }) {
+            Map<String, CredentialIndex.Entry> credentials = credentials(size);
+            CredentialSnapshotFile snapshot = CredentialSnapshotFile.map(write(credentials));
+            assertEquals(size, snapshot.size());
+
+            // Sorted as stored, so that every first and last entry of a block is checked
+            List<String> urls = new ArrayList<>(credentials.keySet());
+            urls.sort((a, b) -> Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8),
+                    b.getBytes(StandardCharsets.UTF_8)));
+            for (String url : urls) {
+                assertEquals(describe(credentials.get(url)), describe(snapshot.get(url)), url);
+                for (String missing : new String[] { url + "x", url.substring(0, url.length() - 1) }) {
+                    if (!credentials.containsKey(missing)) {
+                        assertNull(snapshot.get(missing));
+                    }
+                }
+            }
+            assertNull(snapshot.get(""));
+            assertNull(snapshot.get("\u0000"));
+            assertNull(snapshot.get("\uffff"));
+            assertNull(snapshot.get("https://unknown.example.com/repo"));
+        }
+    }
+
+    @Test
+    void damagedSnapshotIsRejected() throws IOException {
+        Path file = write(credentials(100));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> CredentialSnapshotFile.read(file));
+        assertThrows(IOException.class, () ->
+                CredentialSnapshotFile.map(file).forEach((url, username, password) -> { }));
+    }
+
+    /**
+     * Credentials with shared prefixes, non-ASCII and escaped characters, and
+     * entries holding only one of the two values.
+     */
+    private static Map<String, CredentialIndex.Entry> credentials(int count) {
+        Random random = new Random(count);
+        Map<String, CredentialIndex.Entry> credentials = new LinkedHashMap<>();
+        for (int i = 0; credentials.size() < count; i++) {
+            String path = i % 10 == 0 ? "\u00e9quipe #" + i + "/d\u00e9p\u00f4t="
+                    : "team" + random.nextInt(50) + "/repo-";
+            String url = "https://git" + random.nextInt(5) + ".example.com/" + path + i
+                    + (random.nextBoolean() ? ".git" : "");
+            String username = i % 7 == 3 ? null : "user " + i + (i % 3 == 0 ? ":\u00e9\u4e2d" : "");
+            String password = i % 7 == 5 ? null : Base64.getEncoder().encodeToString(("secret" + i)
+                    .getBytes(StandardCharsets.UTF_8));
+            credentials.put(url, new CredentialIndex.Entry(username, password));
+        }
+        return credentials;
+    }
+
+    private Path write(Map<String, CredentialIndex.Entry> credentials) throws IOException {
+        Path file = Files.createTempFile(dir, "snapshot", ".credsnap");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file.toFile()))) {
+            CredentialSnapshotFile.write(out, credentials.keySet(), credentials::get, 0, 0);
+        }
+        return file;
+    }
+
+    private static void writeProperties(File file, Map<String, CredentialIndex.Entry> credentials)
+            throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            CredentialExporter.write(writer, credentials.keySet(),
+                    new CredentialIndex.Snapshot(new HashMap<>(credentials), 0, 0));
+        }
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private static Map<String, String> describe(Map<String, CredentialIndex.Entry> credentials) {
+        Map<String, String> described = new TreeMap<>();
+        for (Map.Entry<String, CredentialIndex.Entry> e : credentials.entrySet()) {
+            described.put(e.getKey(), describe(e.getValue()));
+        }
+        return described;
+    }
+
+    private static String describe(CredentialIndex.Entry entry) {
+        return entry == null ? null : entry.getUsername() + " / " + entry.getPassword();
+    }
+}
@@ -0,0 +1,199 @@
+package be.capstan.omegat.plugin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs {@link CredentialVerifier} against local stand-in servers.
+ */
+class CredentialVerifierTest {
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "secret";
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final List<ExecutorService> serverThreads = new ArrayList<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        HttpServer server = startServer();
+        // Accepts the test credentials, refuses any others
+        server.createContext("/repo/", exchange -> respond(exchange,
+                ("Basic " + Base64.getEncoder().encodeToString(
+                        (USERNAME + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8)))
+                        .equals(exchange.getRequestHeaders().getFirst("Authorization")) ? 200 : 401));
+        server.createContext("/forbidden/", exchange -> respond(exchange, 403));
+        server.createContext("/missing/", exchange -> respond(exchange, 404));
+        server.createContext("/slow/", exchange -> {
+            sleep(2000);
+            respond(exchange, 200);
+        });
+        server.createContext("/counted/", exchange -> {
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                sleep(50);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            respond(exchange, 200);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        for (ExecutorService threads : serverThreads) {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void acceptedCredentialsAreValid() {
+        CredentialVerifier.Result result = verifier(Duration.ofSeconds(5))
+                .verify(url(0, "/repo/project.git"), entry(PASSWORD));
+        assertEquals(CredentialVerifier.Status.VALID, result.getStatus());
+        assertEquals("HTTP 200", result.getDetail());
+    }
+
+    @Test
+    void refusedCredentialsAreRejected() {
+        CredentialVerifier verifier = verifier(Duration.ofSeconds(5));
+        assertEquals(CredentialVerifier.Status.REJECTED,
+                verifier.verify(url(0, "/repo/project.git"), entry("wrong")).getStatus());
+        assertEquals(CredentialVerifier.Status.REJECTED,
+                verifier.verify(url(0, "/forbidden/project.git"), entry(PASSWORD)).getStatus());
+    }
+
+    @Test
+    void unknownRepositoryIsNotFound() {
+        assertEquals(CredentialVerifier.Status.NOT_FOUND, verifier(Duration.ofSeconds(5))
+                .verify(url(0, "/missing/project.git"), entry(PASSWORD)).getStatus());
+    }
+
+    @Test
+    void slowServerFails() {
+        CredentialVerifier.Result result = verifier(Duration.ofMillis(300))
+                .verify(url(0, "/slow/project.git"), entry(PASSWORD));
+        assertEquals(CredentialVerifier.Status.FAILED, result.getStatus());
+    }
+
+    @Test
+    void sshUrlIsUnsupported() {
+        assertEquals(CredentialVerifier.Status.UNSUPPORTED, verifier(Duration.ofSeconds(5))
+                .verify("ssh://git@localhost/project.git", entry(PASSWORD)).getStatus());
+    }
+
+    @Test
+    void requestsPerHostAreCapped() throws InterruptedException {
+        Map<String, CredentialIndex.Entry> credentials = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++) {
+            credentials.put(url(0, "/counted/project" + i + ".git"), entry(PASSWORD));
+        }
+        Map<String, CredentialVerifier.Result> results = new ConcurrentHashMap<>();
+        new CredentialVerifier(16, 3, Duration.ofSeconds(5)).verify(credentials, results::put);
+
+        assertEquals(credentials.keySet(), results.keySet());
+        for (CredentialVerifier.Result result : results.values()) {
+            assertEquals(CredentialVerifier.Status.VALID, result.getStatus());
+        }
+        assertTrue(maxInFlight.get() <= 3, "at most 3 concurrent requests, saw " + maxInFlight.get());
+        assertTrue(maxInFlight.get() > 1, "requests to one host should overlap");
+    }
+
+    @Test
+    void slowHostDoesNotHoldUpOthers() throws IOException, InterruptedException {
+        startServer().createContext("/", exchange -> respond(exchange, 200));
+        Map<String, CredentialIndex.Entry> credentials = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            credentials.put(url(0, "/slow/project" + i + ".git"), entry(PASSWORD));
+        }
+        for (int i = 0; i < 20; i++) {
+            credentials.put(url(1, "/fast/project" + i + ".git"), entry(PASSWORD));
+        }
+
+        // Two threads may be held by the slow host, the other two serve the fast one
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        new CredentialVerifier(4, 2, Duration.ofSeconds(10)).verify(credentials,
+                (url, result) -> order.add(url));
+
+        assertEquals(credentials.size(), order.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(order.get(i).contains("/fast/"), "fast host finished first: " + order);
+        }
+    }
+
+    @Test
+    void cancelStopsPromptly() throws Exception {
+        Map<String, CredentialIndex.Entry> credentials = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            credentials.put(url(0, "/slow/project" + i + ".git"), entry(PASSWORD));
+        }
+        CredentialVerifier verifier = new CredentialVerifier(8, 4, Duration.ofSeconds(10));
+        ExecutorService runner = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> run = runner.submit(() -> {
+                verifier.verify(credentials, (url, result) -> { });
+                return null;
+            });
+            Thread.sleep(200);
+            verifier.cancel();
+            run.get(2, TimeUnit.SECONDS);
+        } finally {
+            runner.shutdownNow();
+        }
+    }
+
+    private CredentialVerifier verifier(Duration timeout) {
+        return new CredentialVerifier(4, 4, timeout);
+    }
+
+    private HttpServer startServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ExecutorService threads = Executors.newCachedThreadPool();
+        serverThreads.add(threads);
+        server.setExecutor(threads);
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    private String url(int server, String path) {
+        return "http://127.0.0.1:" + servers.get(server).getAddress().getPort() + path;
+    }
+
+    private static CredentialIndex.Entry entry(String password) {
+        return new CredentialIndex.Entry(USERNAME,
+                Base64.getEncoder().encodeToString(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
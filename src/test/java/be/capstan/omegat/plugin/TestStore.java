@@ -0,0 +1,52 @@
+package be.capstan.omegat.plugin;
+
+import org.omegat.util.RuntimePreferences;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A temporary OmegaT configuration folder shared by the tests of one JVM, as
+ * the store, index and journal are bound to the folder they first see.
+ */
+final class TestStore {
+    private static Path configDir;
+
+    private TestStore() {
+    }
+
+    /**
+     * Point OmegaT at the test folder, creating it on first use.
+     */
+    static synchronized Path configDir() {
+        if (configDir == null) {
+            try {
+                configDir = Files.createTempDirectory("omegat-credentials-test");
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            configDir.toFile().deleteOnExit();
+            RuntimePreferences.setConfigDir(configDir.toString());
+        }
+        return configDir;
+    }
+
+    /**
+     * Remove every credential from the store, without journaling it.
+     */
+    static void clear() {
+        configDir();
+        CredentialStore.Batch batch = CredentialStore.newBatch();
+        for (String url : CredentialIndex.getInstance().snapshot().getUrls()) {
+            batch.removeCredentials(url);
+        }
+        batch.commit();
+    }
+
+    static void put(String url, String username, String password) {
+        CredentialStore.Batch batch = CredentialStore.newBatch();
+        batch.setCredentials(url, username, password);
+        batch.commit();
+    }
+}